@@ -70,20 +70,18 @@ document.addEventListener('DOMContentLoaded', () => {
   // === 3. CART LOGIC ===
   async function fetchCartFromServer() {
     try {
-      const res = await fetch(`${API}/cart`);
-      const text = await res.text();
-      const match = text.match(/\{([^}]+)\}/);
-      if (!match) return new Map();
+      const res = await fetch(`${API}/v2/cart`);
+      const data = await res.json();
 
       const serverCart = new Map();
-      match[1].split(', ').forEach(item => {
-        const [id, qty] = item.split('=');
-        if (id && qty) {
-          const name = atob(id);
+      data.items.forEach(({ id, quantity, name, price }) => {
+        // Items taken off the menu come back without a name or price
+        if (name === undefined) {
+          name = id;
           const menuCard = findMenuCard(name);
-          const price = menuCard ? getPrice(menuCard) : 9.99;
-          serverCart.set(id, { name, price, qty: parseInt(qty) });
+          price = menuCard ? getPrice(menuCard) : 9.99;
         }
+        serverCart.set(id, { name, price, qty: quantity });
       });
       return serverCart;
     } catch (err) {
@@ -107,6 +105,26 @@ document.addEventListener('DOMContentLoaded', () => {
     cartIcon.textContent = totalItems > 0 ? `Cart (${totalItems})` : 'Cart';
   }
 
+  // Sends one cart change. The server keeps carts by menu ID and accepts a dish's name in
+  // its place; when it refuses the change (an unknown dish, a full cart) its reason is
+  // shown and false returned, so the local cart is left as it was
+  async function postCart(name, action) {
+    try {
+      const res = await fetch(`${API}/v2/cart`, {
+        method: 'POST',
+        headers: { 'Content-Type': 'application/x-www-form-urlencoded' },
+        body: `itemId=${encodeURIComponent(name)}&action=${action}`
+      });
+      if (res.ok) return true;
+      const result = await res.json().catch(() => ({}));
+      showToast(result.error || 'Could not update your cart. Please try again.');
+    } catch (err) {
+      console.error('Cart update failed:', err);
+      showToast('Could not update your cart. Please try again.');
+    }
+    return false;
+  }
+
   // === 4. ADD TO CART ===
   // For Full Menu items
   document.querySelectorAll('.menu-card .add').forEach(btn => {
@@ -116,11 +134,7 @@ document.addEventListener('DOMContentLoaded', () => {
       const price = getPrice(card);
       const itemId = btoa(title).slice(0, 12);
 
-      await fetch(`${API}/cart`, {
-        method: 'POST',
-        headers: { 'Content-Type': 'application/x-www-form-urlencoded' },
-        body: `itemId=${itemId}&action=add`
-      });
+      if (!await postCart(title, 'add')) return;
 
       // Update local cache
       const existing = cart.get(itemId);
@@ -144,11 +158,7 @@ document.addEventListener('DOMContentLoaded', () => {
       const price = parseFloat(priceText) || 9.99;
       const itemId = btoa(title).slice(0, 12);
 
-      await fetch(`${API}/cart`, {
-        method: 'POST',
-        headers: { 'Content-Type': 'application/x-www-form-urlencoded' },
-        body: `itemId=${itemId}&action=add`
-      });
+      if (!await postCart(title, 'add')) return;
 
       // Update local cache
       const existing = cart.get(itemId);
@@ -170,21 +180,12 @@ document.addEventListener('DOMContentLoaded', () => {
 
     const newQty = item.qty + change;
     if (newQty <= 0) {
-      await fetch(`${API}/cart`, {
-        method: 'POST',
-        headers: { 'Content-Type': 'application/x-www-form-urlencoded' },
-        body: `itemId=${itemId}&action=remove`
-      });
-      cart.delete(itemId);
+      if (await postCart(item.name, 'remove')) cart.delete(itemId);
     } else {
-      for (let i = 0; i < Math.abs(change); i++) {
-        await fetch(`${API}/cart`, {
-          method: 'POST',
-          headers: { 'Content-Type': 'application/x-www-form-urlencoded' },
-          body: `itemId=${itemId}&action=add`
-        });
-      }
-      item.qty = newQty;
+      // Stops at the first refused change; the quantity shown is what the server took
+      let applied = 0;
+      while (applied < Math.abs(change) && await postCart(item.name, 'add')) applied++;
+      item.qty += Math.sign(change) * applied;
     }
 
     await renderCart();
@@ -297,7 +298,10 @@ document.addEventListener('DOMContentLoaded', () => {
     openCheckoutModal();
   });
 
+  let checkoutKey = null;
+
   function openCheckoutModal() {
+    checkoutKey = crypto.randomUUID();
     // Populate checkout items
     checkoutItemsEl.innerHTML = '';
     let total = 0;
@@ -371,13 +375,23 @@ document.addEventListener('DOMContentLoaded', () => {
 
     try {
       // Send order to backend
-      const response = await fetch(`${API}/order`, {
+      const response = await fetch(`${API}/v2/order`, {
         method: 'POST',
-        headers: { 'Content-Type': 'application/x-www-form-urlencoded' },
-        body: `userName=${encodeURIComponent(customerName)}&userEmail=${encodeURIComponent(customerEmail)}&itemId=${orderItems[0]?.name || 'order'}`
+        headers: {
+          'Content-Type': 'application/x-www-form-urlencoded',
+          // Same key for every submit of this checkout, so a retry cannot order twice
+          'Idempotency-Key': checkoutKey
+        },
+        body: `userName=${encodeURIComponent(customerName)}&userEmail=${encodeURIComponent(customerEmail)}` +
+          `&userPhone=${encodeURIComponent(customerPhone)}` +
+          orderItems.map(item => `&itemId=${encodeURIComponent(item.name)}&quantity=${item.quantity}`).join('')
       });
 
-      const result = await response.text();
+      const result = await response.json();
+      if (!response.ok) {
+        showToast(result.error || 'Failed to place order. Please try again.');
+        return;
+      }
       
       // Clear cart
       cart.clear();
@@ -387,16 +401,16 @@ document.addEventListener('DOMContentLoaded', () => {
       closeCheckoutModal();
       
       // Show success message
-      showSuccessModal(customerName, orderData.total);
+      showSuccessModal(customerName, result.total, result.orderId);
       
-      console.log('Order placed:', orderData);
+      console.log('Order placed:', result);
     } catch (error) {
       console.error('Order failed:', error);
       showToast('Failed to place order. Please try again.');
     }
   });
 
-  function showSuccessModal(customerName, total) {
+  function showSuccessModal(customerName, total, orderId) {
     const successModal = document.createElement('div');
     successModal.style.cssText = `
       position: fixed;
@@ -418,6 +432,7 @@ document.addEventListener('DOMContentLoaded', () => {
       <h2 style="color: var(--accent); margin: 0 0 16px 0;">Order Placed Successfully!</h2>
       <p style="font-size: 16px; margin-bottom: 8px;">Thank you, <strong>${customerName}</strong>!</p>
       <p style="font-size: 18px; color: var(--accent); font-weight: 700; margin-bottom: 20px;">Total: $${total.toFixed(2)}</p>
+      <p style="font-size: 16px; margin-bottom: 8px;">Order <strong>${orderId}</strong>: <span class="order-status">Pending</span></p>
       <p style="color: var(--muted); font-size: 14px; margin-bottom: 24px;">Your order will be delivered soon. You'll receive a confirmation email shortly.</p>
       <button onclick="this.parentElement.remove(); document.querySelector('.checkout-overlay').classList.remove('open')" 
               style="background: var(--accent); color: white; border: none; padding: 12px 32px; border-radius: 8px; font-weight: 600; cursor: pointer; font-size: 16px;">
@@ -426,6 +441,14 @@ document.addEventListener('DOMContentLoaded', () => {
     `;
     
     document.body.appendChild(successModal);
+
+    // Live status from the server; the stream ends when the order is delivered or cancelled
+    const statusEl = successModal.querySelector('.order-status');
+    const events = new EventSource(`${API}/orders/${encodeURIComponent(orderId)}/events`);
+    events.addEventListener('status', (e) => {
+      statusEl.textContent = JSON.parse(e.data).status;
+    });
+    successModal.querySelector('button').addEventListener('click', () => events.close());
   }
 
   // === 9. TOAST NOTIFICATION ===
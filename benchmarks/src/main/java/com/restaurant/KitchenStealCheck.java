@@ -0,0 +1,79 @@
+package com.restaurant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Check for KitchenScheduler's work stealing. A lone ticket must be cooked at its own
+// station while that station has idle cooks, however many other cooks are idle too; a
+// station with more tickets than cooks must get help from the others. Exits with
+// status 1 on the first mismatch.
+//
+//   java -cp benchmarks/target/benchmarks.jar com.restaurant.KitchenStealCheck [loneOrders]
+public class KitchenStealCheck {
+    public static void main(String[] args) throws Exception {
+        int lone = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        User customer = new User("U1", "Jane", "jane@example.com", "5551234567");
+        MenuItem steak = MenuItemFactory.createMenuItem("main", "steak", "Grilled Ribeye Steak", 28.99);
+
+        // 20 kitchen minutes take 20 ms; orders go in one at a time
+        OrderManager orders = new OrderManager();
+        KitchenScheduler kitchen = new KitchenScheduler(orders, 2, 60_000, 0);
+        kitchen.start();
+        try {
+            for (int i = 1; i <= lone; i++) {
+                Order order = place(orders, "ORD" + i, customer, steak);
+                kitchen.submit(order);
+                awaitReady(List.of(order));
+            }
+            check(kitchen.getStolenCount() == 0,
+                kitchen.getStolenCount() + " of " + lone + " lone tickets were stolen from an idle station");
+        } finally {
+            kitchen.shutdown();
+        }
+
+        // One cook per station and a burst of grill tickets: the idle cooks must help
+        orders = new OrderManager();
+        kitchen = new KitchenScheduler(orders, 1, 60_000, 0);
+        kitchen.start();
+        try {
+            List<Order> burst = new ArrayList<>();
+            for (int i = 1; i <= 12; i++) {
+                Order order = place(orders, "ORD" + i, customer, steak);
+                burst.add(order);
+                kitchen.submit(order);
+            }
+            awaitReady(burst);
+            check(kitchen.getStolenCount() > 0, "No ticket was stolen from a backed-up station");
+            check(kitchen.getCompletedCount() == burst.size(),
+                "Completed " + kitchen.getCompletedCount() + " of " + burst.size());
+            System.out.printf("OK: %d lone tickets cooked at home, %d of %d burst tickets stolen%n",
+                lone, kitchen.getStolenCount(), burst.size());
+        } finally {
+            kitchen.shutdown();
+        }
+    }
+
+    private static Order place(OrderManager orders, String id, User customer, MenuItem item) {
+        Order order = new Order(id, customer);
+        order.addItem(item);
+        orders.addOrder(order);
+        return order;
+    }
+
+    private static void awaitReady(List<Order> batch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        for (Order order : batch) {
+            while (order.getOrderStatus() != OrderStatus.READY) {
+                check(System.currentTimeMillis() < deadline, "Order " + order.getOrderId() + " never became ready");
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.out.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+}
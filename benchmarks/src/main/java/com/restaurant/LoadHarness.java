@@ -0,0 +1,384 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Drives HTTP load at a RestaurantBackend and reports throughput, error rates and latency
+// percentiles per request class. Unless --target names a running server, the backend is
+// started in this JVM on a free port (run from the repository root so ./Public is found).
+//
+//   java -cp benchmarks/target/benchmarks.jar com.restaurant.LoadHarness [options]
+//     --mode open|closed   open: requests arrive at --rate per second whether or not
+//                          earlier ones have finished; closed: --users clients each send
+//                          their next request when the last one returns (default open)
+//     --rate 200           open loop arrivals per second
+//     --users 50           closed loop clients; in open loop, the number of sessions
+//     --pace-ms 0          closed loop: each client starts a request every pace-ms at most
+//     --mix static=20,cart=50,order=30
+//     --burst 4            orders per order burst
+//     --warmup 5 --duration 30   seconds; nothing sent during warm-up is reported
+//     --replay <file>      send a log recorded with -Drecord=<file> instead of the mix, at
+//                          its recorded pace (open) or as fast as --users clients can
+//     --speed 1.0          replay pace multiplier
+//     --max-outstanding 1000   open loop cap on requests in flight
+//     --target http://host:port
+//
+// Latency is reported twice. "From intended start" counts from when the request was due
+// to be sent: its arrival time in open loop, or its slot in a paced closed loop. A server
+// that stalls therefore shows up in every request that queued behind the stall, rather
+// than only in the few that were already in flight (coordinated omission). "Service time"
+// counts from when the request was actually sent. An unpaced closed loop has no intended
+// times, so the two are the same there. 429 and 503 responses count as rejected, other
+// 4xx/5xx responses and I/O failures as errors
+public class LoadHarness {
+    // One request to send
+    static final class Call {
+        final String kind;
+        final String client;
+        final String method;
+        final String uri;
+        final String contentType;
+        final String body;
+        long atNanos = -1;      // replay: offset from the start of the log
+        boolean follower;       // later order of a burst, due with the first
+
+        Call(String kind, String client, String method, String uri, String contentType, String body) {
+            this.kind = kind;
+            this.client = client;
+            this.method = method;
+            this.uri = uri;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    interface Source {
+        // The next call for a closed-loop user, or for any client when user is negative;
+        // null when there are no more
+        Call next(int user);
+    }
+
+    static final class Stats {
+        final LatencyHistogram corrected = new LatencyHistogram();
+        final LatencyHistogram service = new LatencyHistogram();
+        final AtomicLong maxCorrected = new AtomicLong();
+        final AtomicLong maxService = new AtomicLong();
+        final LongAdder ok = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        void record(int status, long correctedNanos, long serviceNanos) {
+            if (status >= 200 && status < 400) {
+                ok.increment();
+            } else if (status == 429 || status == 503) {
+                rejected.increment();
+            } else {
+                errors.increment();
+            }
+            corrected.record(correctedNanos);
+            service.record(serviceNanos);
+            maxCorrected.accumulateAndGet(correctedNanos, Math::max);
+            maxService.accumulateAndGet(serviceNanos, Math::max);
+        }
+    }
+
+    private final HttpClient client;
+    private final String base;
+    private final Map<String, String> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Stats> stats = new ConcurrentSkipListMap<>();
+    private final LongAdder inFlightFailures = new LongAdder();
+    private volatile long measureFrom;     // System.nanoTime(); earlier sends are warm-up
+    private volatile long lastCompletion;
+
+    LoadHarness(String base) {
+        this.base = base;
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    }
+
+    private HttpRequest request(Call call) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(base + call.uri))
+            .timeout(Duration.ofSeconds(30));
+        if (call.body != null) {
+            b.method(call.method, HttpRequest.BodyPublishers.ofString(call.body));
+        } else {
+            b.method(call.method, HttpRequest.BodyPublishers.noBody());
+        }
+        if (call.contentType != null) b.header("Content-Type", call.contentType);
+        String session = sessions.get(call.client);
+        if (session != null) b.header("Cookie", session);
+        return b.build();
+    }
+
+    // Keeps the session cookie the server hands each client
+    private void remember(Call call, HttpResponse<?> response) {
+        for (String cookie : response.headers().allValues("Set-Cookie")) {
+            if (cookie.startsWith("SESSION=")) {
+                int end = cookie.indexOf(';');
+                sessions.put(call.client, end < 0 ? cookie : cookie.substring(0, end));
+            }
+        }
+    }
+
+    private void complete(Call call, long due, long sent, int status) {
+        long now = System.nanoTime();
+        lastCompletion = now;
+        if (due < measureFrom) return;
+        if (status < 0) inFlightFailures.increment();
+        stats.computeIfAbsent(call.kind, k -> new Stats()).record(status, now - due, now - sent);
+    }
+
+    // Sends each call when it is due, without waiting for earlier ones. If the cap on
+    // requests in flight holds a call back, it is still timed from when it was due
+    void runOpen(Source source, double rate, double speed, long warmupNanos, long durationNanos,
+                 int maxOutstanding) throws InterruptedException {
+        long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+        Semaphore permits = new Semaphore(maxOutstanding);
+        long start = System.nanoTime();
+        measureFrom = start + warmupNanos;
+        long next = 0;
+        long burstDue = 0;
+        while (true) {
+            Call call = source.next(-1);
+            if (call == null) break;
+            long due;
+            if (call.atNanos >= 0) {
+                due = (long) (call.atNanos / speed);
+            } else {
+                due = call.follower ? burstDue : next;
+                burstDue = due;
+                next += interval;
+            }
+            if (durationNanos > 0 && due >= warmupNanos + durationNanos) break;
+            long dueAt = start + due;
+            for (long wait; (wait = dueAt - System.nanoTime()) > 0; ) {
+                LockSupport.parkNanos(wait);
+            }
+            permits.acquire();
+            long sent = System.nanoTime();
+            client.sendAsync(request(call), HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, failure) -> {
+                    try {
+                        if (response != null) remember(call, response);
+                        complete(call, dueAt, sent, response != null ? response.statusCode() : -1);
+                    } finally {
+                        permits.release();
+                    }
+                });
+        }
+        if (!permits.tryAcquire(maxOutstanding, 60, TimeUnit.SECONDS)) {
+            System.out.println("Gave up waiting for " + (maxOutstanding - permits.availablePermits())
+                + " requests still in flight");
+        }
+    }
+
+    // users clients each send a call, wait for the answer, and go again. With a pace,
+    // each client's calls are due every pace nanoseconds, and a call that cannot go out
+    // on time because the previous one is still running is timed from its slot
+    void runClosed(Source source, int users, long paceNanos, long warmupNanos, long durationNanos)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        measureFrom = start + warmupNanos;
+        long end = start + warmupNanos + durationNanos;
+        Thread[] threads = new Thread[users];
+        for (int u = 0; u < users; u++) {
+            int user = u;
+            threads[u] = new Thread(() -> {
+                long due = start + (paceNanos > 0 ? paceNanos * user / users : 0);
+                while (System.nanoTime() < end) {
+                    Call call = source.next(user);
+                    if (call == null) return;
+                    if (paceNanos > 0) {
+                        for (long wait; (wait = due - System.nanoTime()) > 0; ) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    long sent = System.nanoTime();
+                    long from = paceNanos > 0 ? due : sent;
+                    int status;
+                    try {
+                        HttpResponse<Void> response = client.send(request(call), HttpResponse.BodyHandlers.discarding());
+                        remember(call, response);
+                        status = response.statusCode();
+                    } catch (IOException ex) {
+                        status = -1;
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    complete(call, from, sent, status);
+                    due += paceNanos;
+                }
+            }, "load-user-" + u);
+            threads[u].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    void report(String heading, long measuredNanos) {
+        double seconds = measuredNanos / 1e9;
+        System.out.println();
+        System.out.println(heading);
+        System.out.printf("measured %.1f s, %d failed without a response%n", seconds, inFlightFailures.sum());
+        Stats total = new Stats();
+        for (Stats s : stats.values()) {
+            total.ok.add(s.ok.sum());
+            total.rejected.add(s.rejected.sum());
+            total.errors.add(s.errors.sum());
+        }
+        printTable("Latency from intended start (ms)", seconds, true);
+        printTable("Service time (ms)", seconds, false);
+        long all = total.ok.sum() + total.rejected.sum() + total.errors.sum();
+        System.out.printf("%ntotal %d requests, %.1f req/s, %.2f%% rejected, %.2f%% errors%n",
+            all, all / seconds, percent(total.rejected.sum(), all), percent(total.errors.sum(), all));
+    }
+
+    private void printTable(String title, double seconds, boolean corrected) {
+        System.out.println();
+        System.out.println(title);
+        System.out.printf("%-8s %9s %9s %9s %9s %9s %9s %9s %9s %9s %9s%n",
+            "class", "count", "ok", "rejected", "errors", "req/s", "p50", "p90", "p99", "p99.9", "max");
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            LatencyHistogram h = corrected ? s.corrected : s.service;
+            long max = corrected ? s.maxCorrected.get() : s.maxService.get();
+            System.out.printf("%-8s %9d %9d %9d %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                entry.getKey(), h.getCount(), s.ok.sum(), s.rejected.sum(), s.errors.sum(),
+                h.getCount() / seconds, millis(h.percentile(0.5)), millis(h.percentile(0.9)),
+                millis(h.percentile(0.99)), millis(h.percentile(0.999)), millis(max));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+
+    // Menu item IDs from /api/v2/menu, form-encoded
+    List<String> menuItemIds() throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(
+            HttpRequest.newBuilder(URI.create(base + "/api/v2/menu")).build(),
+            HttpResponse.BodyHandlers.ofString());
+        List<String> ids = new ArrayList<>();
+        Matcher m = Pattern.compile("\"id\":\"([^\"]+)\"").matcher(response.body());
+        while (m.find()) {
+            ids.add(URLEncoder.encode(m.group(1), StandardCharsets.UTF_8));
+        }
+        return ids;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String mode = options.getOrDefault("mode", "open");
+        if (!mode.equals("open") && !mode.equals("closed")) {
+            throw new IllegalArgumentException("--mode must be open or closed");
+        }
+        double rate = Double.parseDouble(options.getOrDefault("rate", "200"));
+        int users = Integer.parseInt(options.getOrDefault("users", "50"));
+        long pace = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.getOrDefault("pace-ms", "0")));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "5")));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+        double speed = Double.parseDouble(options.getOrDefault("speed", "1"));
+        int maxOutstanding = Integer.parseInt(options.getOrDefault("max-outstanding", "1000"));
+        String replay = options.get("replay");
+        if (rate <= 0 || users < 1 || speed <= 0 || maxOutstanding < 1) {
+            throw new IllegalArgumentException("rate, users, speed and max-outstanding must be positive");
+        }
+
+        String target = options.get("target");
+        boolean embedded = target == null;
+        if (embedded) {
+            // Measure the request path, not the limits meant for real customers or the disk,
+            // unless the caller asked otherwise
+            defaultProperty("journal", "off");
+            defaultProperty("notifications", "false");
+            defaultProperty("orders.maxPerDay", "0");
+            defaultProperty("admission.rate", "1000000");
+            defaultProperty("admission.burst", "1000000");
+            int port = RestaurantBackend.start(0, ExecutorMode.fromString(System.getProperty("executor")),
+                Integer.getInteger("threads", Runtime.getRuntime().availableProcessors() * 4),
+                Integer.getInteger("queue", 1024));
+            target = "http://localhost:" + port;
+        }
+        LoadHarness harness = new LoadHarness(target.endsWith("/") ? target.substring(0, target.length() - 1) : target);
+
+        Source source;
+        String heading;
+        if (replay != null) {
+            List<Call> calls = RequestLog.read(Path.of(replay));
+            AtomicInteger cursor = new AtomicInteger();
+            source = user -> {
+                int i = cursor.getAndIncrement();
+                return i < calls.size() ? calls.get(i) : null;
+            };
+            heading = String.format("Replay of %s (%d requests), %s loop", replay, calls.size(),
+                mode.equals("open") ? "at " + speed + "x recorded pace, open" : users + " users, closed");
+            if (mode.equals("open")) duration = 0;
+        } else {
+            LoadMix mix = new LoadMix(options.getOrDefault("mix", "static=20,cart=50,order=30"),
+                Integer.parseInt(options.getOrDefault("burst", "4")), users, harness.menuItemIds());
+            source = mix::next;
+            heading = mode.equals("open")
+                ? String.format("Open loop at %.0f req/s over %d sessions", rate, users)
+                : String.format("Closed loop with %d users%s", users,
+                    pace > 0 ? ", one request per " + TimeUnit.NANOSECONDS.toMillis(pace) + " ms each" : "");
+        }
+        System.out.println(heading + " against " + target);
+
+        if (mode.equals("open")) {
+            harness.runOpen(source, rate, speed, warmup, duration, maxOutstanding);
+        } else {
+            harness.runClosed(source, users, pace, warmup, duration);
+        }
+        harness.report(heading, Math.max(harness.lastCompletion - harness.measureFrom, 1));
+
+        if (embedded) {
+            RestaurantBackend.stop();
+        }
+        // Pool threads of the client and the embedded server are not all daemons
+        System.exit(0);
+    }
+
+    private static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) System.setProperty(key, value);
+    }
+
+    // --name value or --name=value
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + arg);
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else if (i + 1 < args.length) {
+                options.put(arg.substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+        }
+        return options;
+    }
+}
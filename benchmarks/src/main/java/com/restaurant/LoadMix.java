@@ -0,0 +1,97 @@
+package com.restaurant;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Synthetic traffic: static assets, cart churn and order bursts in the given proportions,
+// e.g. "static=20,cart=50,order=30". An order pick starts a burst of burst orders from the
+// same client, the way a table orders together; in open-loop runs a burst arrives at once.
+// Cart calls add an item more often than they remove one, and now and then read the cart
+final class LoadMix {
+    private static final String[] ASSETS = {
+        "/", "/styles.css", "/script.js", "/wings.png", "/steak.png", "/cheese.png",
+        "/salad.png", "/lava.png", "/mango.png", "/grilled.png"
+    };
+    private static final String FORM = "application/x-www-form-urlencoded";
+
+    private final int staticWeight;
+    private final int cartWeight;
+    private final int orderWeight;
+    private final int burst;
+    private final int users;
+    private final List<String> itemIds;
+
+    // Bursts in progress per closed-loop user, the last slot for open loop. Guarded by this
+    private final int[] burstLeft;
+    private final String[] burstClient;
+
+    LoadMix(String weights, int burst, int users, List<String> itemIds) {
+        int s = 0, c = 0, o = 0;
+        for (String part : weights.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) throw new IllegalArgumentException("Bad mix entry: " + part);
+            int w = Integer.parseInt(kv[1].trim());
+            if (w < 0) throw new IllegalArgumentException("Negative weight: " + part);
+            switch (kv[0].trim()) {
+                case "static": s = w; break;
+                case "cart": c = w; break;
+                case "order": o = w; break;
+                default: throw new IllegalArgumentException("Unknown request class: " + kv[0]);
+            }
+        }
+        if (s + c + o == 0) throw new IllegalArgumentException("Mix has no weight");
+        if (itemIds.isEmpty()) throw new IllegalArgumentException("Menu has no items");
+        if (burst < 1 || users < 1) throw new IllegalArgumentException("burst and users must be positive");
+        this.staticWeight = s;
+        this.cartWeight = c;
+        this.orderWeight = o;
+        this.burst = burst;
+        this.users = users;
+        this.itemIds = itemIds;
+        this.burstLeft = new int[users + 1];
+        this.burstClient = new String[users + 1];
+    }
+
+    // The next call for the given user, or for a random one when user is negative
+    synchronized LoadHarness.Call next(int user) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int slot = user >= 0 ? user : users;
+        if (burstLeft[slot] > 0) {
+            burstLeft[slot]--;
+            return order(burstClient[slot], true);
+        }
+        String client = "user-" + (user >= 0 ? user : random.nextInt(users));
+        int pick = random.nextInt(staticWeight + cartWeight + orderWeight);
+        if (pick < staticWeight) {
+            return new LoadHarness.Call("static", client, "GET", ASSETS[random.nextInt(ASSETS.length)], null, null);
+        }
+        if (pick < staticWeight + cartWeight) {
+            int action = random.nextInt(10);
+            if (action == 0) {
+                return new LoadHarness.Call("cart", client, "GET", "/api/v2/cart", null, null);
+            }
+            return new LoadHarness.Call("cart", client, "POST", "/api/v2/cart", FORM,
+                "action=" + (action < 7 ? "add" : "remove") + "&itemId=" + item(random));
+        }
+        burstLeft[slot] = burst - 1;
+        burstClient[slot] = client;
+        return order(client, false);
+    }
+
+    private LoadHarness.Call order(String client, boolean follower) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder body = new StringBuilder("userName=Load+Test&userEmail=")
+            .append(client).append("%40example.com");
+        int lines = 1 + random.nextInt(3);
+        for (int i = 0; i < lines; i++) {
+            body.append("&itemId=").append(item(random)).append("&quantity=").append(1 + random.nextInt(3));
+        }
+        LoadHarness.Call call = new LoadHarness.Call("order", client, "POST", "/api/v2/order", FORM, body.toString());
+        call.follower = follower;
+        return call;
+    }
+
+    private String item(ThreadLocalRandom random) {
+        return itemIds.get(random.nextInt(itemIds.size()));
+    }
+}
@@ -0,0 +1,41 @@
+package com.restaurant;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// calculatePrice overloads and the factory, per MenuItem subclass
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dnotifications=false")
+public class MenuItemBenchmark {
+    @Param({"appetizer", "main", "dessert"})
+    public String type;
+
+    private MenuItem item;
+
+    @Setup
+    public void setup() {
+        item = MenuItemFactory.createMenuItem(type, "id", "Item", 24.99, "Benchmark item");
+    }
+
+    @Benchmark
+    public void calculatePrice(Blackhole bh) {
+        bh.consume(item.calculatePrice());
+        bh.consume(item.calculatePrice(10));
+        bh.consume(item.calculatePrice(10, 8.5));
+    }
+
+    @Benchmark
+    public long calculatePriceCents() {
+        return item.calculatePriceCents(10, 8.5);
+    }
+
+    @Benchmark
+    public MenuItem createMenuItem() {
+        return MenuItemFactory.createMenuItem(type, "id", "Item", 24.99, "Benchmark item");
+    }
+}
@@ -0,0 +1,58 @@
+package com.restaurant;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Building an order line by line and reading its total
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dnotifications=false")
+public class OrderBenchmark {
+    // Units per order; all within the default order.maxQuantity so every run completes
+    @Param({"1", "10", "200"})
+    public int units;
+
+    private User customer;
+    private MenuItem[] items;
+    private Order order;
+
+    @Setup
+    public void setup() {
+        customer = new User("U1", "Jane", "jane@example.com", "5551234567");
+        items = new MenuItem[] {
+            MenuItemFactory.createMenuItem("appetizer", "wings", "Buffalo Wings", 12.99),
+            MenuItemFactory.createMenuItem("main", "steak", "Grilled Ribeye Steak", 28.99),
+            MenuItemFactory.createMenuItem("dessert", "cheese", "New York Cheesecake", 7.99)
+        };
+        order = new Order("ORD1", customer);
+        order.addItem(items[0], 5);
+    }
+
+    // One addItem call per unit, as a cart built click by click would
+    @Benchmark
+    public long addItemPerUnit() {
+        Order o = new Order("ORD1", customer);
+        for (int i = 0; i < units; i++) {
+            o.addItem(items[i % items.length]);
+        }
+        return o.getTotalCents();
+    }
+
+    @Benchmark
+    public long addItemWithQuantity() {
+        Order o = new Order("ORD1", customer);
+        o.addItem(items[1], units);
+        return o.getTotalCents();
+    }
+
+    // Add then remove one unit, recalculating the total both times
+    @Benchmark
+    public long recalculateTotal() {
+        order.addItem(items[2]);
+        order.removeItem(items[2]);
+        return order.getTotalCents();
+    }
+}
@@ -0,0 +1,44 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Full /api/order round trip through OrderHandler on an in-memory exchange: read, parse,
+// price, store, notify, respond. Each created order is dropped again so the heap stays flat.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dnotifications=false")
+public class OrderHandlerBenchmark {
+    @Param({"1", "5"})
+    public int lines;
+
+    private RestaurantBackend.OrderHandler handler;
+    private StubExchange exchange;
+
+    @Setup
+    public void setup() {
+        handler = new RestaurantBackend.OrderHandler();
+        String[] ids = {"wings", "steak", "cheese", "salad", "wings"};
+        StringBuilder body = new StringBuilder("userName=Jane&userEmail=jane%40example.com");
+        for (int i = 0; i < lines; i++) {
+            body.append("&itemId=").append(ids[i]).append("&quantity=").append(i + 1);
+        }
+        exchange = new StubExchange("POST", "/api/order", body.toString());
+    }
+
+    @Benchmark
+    public int orderRoundTrip() throws IOException {
+        exchange.reset();
+        handler.handle(exchange);
+        String response = exchange.responseText();
+        int start = response.indexOf("ORD");
+        if (start >= 0) {
+            RestaurantBackend.orderManager().removeOrder(response.substring(start, response.indexOf(' ', start)));
+        }
+        return exchange.getResponseCode();
+    }
+}
@@ -0,0 +1,115 @@
+package com.restaurant;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+// Concurrency check for OrderStore and OrderIdGenerator: many threads mint IDs from one
+// generator and insert orders while readers look them up, then half of them are removed
+// concurrently. Every ID must be unique and every order found exactly once, and the
+// store's size must agree with its contents after each phase. Exits with status 1 on the
+// first mismatch.
+//
+//   java -cp benchmarks/target/benchmarks.jar com.restaurant.OrderStoreStress [threads] [ordersPerThread]
+public class OrderStoreStress {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 250_000;
+        OrderStore store = new OrderStore();
+        OrderIdGenerator ids = new OrderIdGenerator();
+        User customer = new User("U1", "Jane", "jane@example.com", "5551234567");
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        try {
+            // Insert, each thread keeping the IDs it minted
+            long start = System.nanoTime();
+            List<Future<List<String>>> minted = new ArrayList<>();
+            CountDownLatch go = new CountDownLatch(1);
+            for (int t = 0; t < threads; t++) {
+                minted.add(pool.submit(() -> {
+                    go.await();
+                    List<String> mine = new ArrayList<>(perThread);
+                    for (int i = 0; i < perThread; i++) {
+                        String id = ids.nextId();
+                        if (!store.putIfAbsent(new Order(id, customer))) {
+                            throw new IllegalStateException("Fresh ID already stored: " + id);
+                        }
+                        if (store.get(id) == null) {
+                            throw new IllegalStateException("Order missing right after insert: " + id);
+                        }
+                        mine.add(id);
+                    }
+                    return mine;
+                }));
+            }
+            // A reader probing IDs that may or may not exist yet, to race lookups with resizes
+            Future<Long> reader = pool.submit(() -> {
+                go.await();
+                long found = 0;
+                for (int i = 1; i <= threads * perThread; i += 7) {
+                    if (store.get("ORD" + i) != null) found++;
+                }
+                return found;
+            });
+            go.countDown();
+            List<String> all = new ArrayList<>(threads * perThread);
+            for (Future<List<String>> f : minted) all.addAll(get(f));
+            get(reader);
+            long insertMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            int expected = threads * perThread;
+            Set<String> unique = new HashSet<>(all);
+            check(unique.size() == expected, "IDs minted: " + unique.size() + " unique of " + expected);
+            check(store.size() == expected, "Store size " + store.size() + ", expected " + expected);
+            check(store.values().size() == expected, "Store holds " + store.values().size() + ", expected " + expected);
+            for (String id : all) {
+                check(store.get(id) != null, "Order not found: " + id);
+            }
+            check(!store.putIfAbsent(new Order(all.get(0), customer)), "Duplicate ID accepted: " + all.get(0));
+
+            // Remove every other order, split across the threads
+            List<Future<Integer>> removals = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t * 2;
+                removals.add(pool.submit(() -> {
+                    int removed = 0;
+                    for (int i = first; i < all.size(); i += threads * 2) {
+                        if (store.remove(all.get(i)) != null) removed++;
+                    }
+                    return removed;
+                }));
+            }
+            int removed = 0;
+            for (Future<Integer> f : removals) removed += get(f);
+            int left = expected - (expected + 1) / 2;
+            check(removed == (expected + 1) / 2, "Removed " + removed + ", expected " + (expected + 1) / 2);
+            check(store.size() == left, "Store size " + store.size() + " after removal, expected " + left);
+            check(store.values().size() == left, "Store holds " + store.values().size() + " after removal");
+            for (int i = 0; i < all.size(); i++) {
+                check((store.get(all.get(i)) == null) == (i % 2 == 0), "Wrong order removed: " + all.get(i));
+            }
+            System.out.printf("OK: %d threads x %d orders inserted in %d ms, %d removed, %d left%n",
+                threads, perThread, insertMillis, removed, left);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            System.out.println("FAILED: " + ex.getCause());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.out.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.restaurant;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reads a request log written by RequestRecorder (-Drecord=<file>): one flat JSON object
+// per line with string and integer values only, so a small parser does. Calls come back
+// in the order the requests arrived
+final class RequestLog {
+    private RequestLog() {
+    }
+
+    static List<LoadHarness.Call> read(Path file) throws IOException {
+        List<LoadHarness.Call> calls = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                if (line.isBlank()) continue;
+                Map<String, String> fields;
+                try {
+                    fields = parse(line);
+                } catch (RuntimeException ex) {
+                    throw new IOException(file + ":" + number + ": " + ex.getMessage());
+                }
+                String uri = fields.get("uri");
+                if (uri == null) throw new IOException(file + ":" + number + ": missing uri");
+                LoadHarness.Call call = new LoadHarness.Call(classify(uri), fields.getOrDefault("client", ""),
+                    fields.getOrDefault("method", "GET"), uri, fields.get("contentType"), fields.get("body"));
+                call.atNanos = Long.parseLong(fields.getOrDefault("at", "0")) * 1_000_000;
+                calls.add(call);
+            }
+        }
+        // Lines are written as requests finish; send them in arrival order
+        calls.sort(Comparator.comparingLong(c -> c.atNanos));
+        return calls;
+    }
+
+    // Request class for the report, from the path alone
+    static String classify(String uri) {
+        if (uri.startsWith("/api/cart") || uri.startsWith("/api/v2/cart")) return "cart";
+        if (uri.startsWith("/api/order") || uri.startsWith("/api/v2/order")) return "order";
+        if (uri.startsWith("/api/")) return "api";
+        return "static";
+    }
+
+    static Map<String, String> parse(String line) {
+        Map<String, String> fields = new HashMap<>();
+        int[] at = {skip(line, 0)};
+        expect(line, at, '{');
+        if (peek(line, at) == '}') return fields;
+        while (true) {
+            String name = string(line, at);
+            expect(line, at, ':');
+            String value = peek(line, at) == '"' ? string(line, at) : number(line, at);
+            fields.put(name, value);
+            char c = peek(line, at);
+            at[0]++;
+            if (c == '}') return fields;
+            if (c != ',') throw new IllegalArgumentException("expected , or } at " + (at[0] - 1));
+            at[0] = skip(line, at[0]);
+        }
+    }
+
+    private static String string(String s, int[] at) {
+        if (peek(s, at) != '"') throw new IllegalArgumentException("expected a string at " + at[0]);
+        StringBuilder out = new StringBuilder();
+        int i = at[0] + 1;
+        while (true) {
+            if (i >= s.length()) throw new IllegalArgumentException("unterminated string");
+            char c = s.charAt(i++);
+            if (c == '"') break;
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            char e = s.charAt(i++);
+            switch (e) {
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'u': out.append((char) Integer.parseInt(s.substring(i, i + 4), 16)); i += 4; break;
+                default: out.append(e);
+            }
+        }
+        at[0] = skip(s, i);
+        return out.toString();
+    }
+
+    private static String number(String s, int[] at) {
+        int start = at[0];
+        int i = start;
+        while (i < s.length() && (Character.isDigit(s.charAt(i)) || s.charAt(i) == '-')) i++;
+        if (i == start) throw new IllegalArgumentException("expected a value at " + start);
+        at[0] = skip(s, i);
+        return s.substring(start, i);
+    }
+
+    private static void expect(String s, int[] at, char c) {
+        if (peek(s, at) != c) throw new IllegalArgumentException("expected " + c + " at " + at[0]);
+        at[0] = skip(s, at[0] + 1);
+    }
+
+    private static char peek(String s, int[] at) {
+        if (at[0] >= s.length()) throw new IllegalArgumentException("unexpected end of line");
+        return s.charAt(at[0]);
+    }
+
+    private static int skip(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+}
@@ -0,0 +1,66 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Reading and decoding a typical /api/order body, and writing its confirmation
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dnotifications=false")
+public class RequestParsingBenchmark {
+    private static final String BODY = "userName=Jane%20Doe&userEmail=jane%40example.com"
+        + "&userPhone=5551234567&itemId=wings&quantity=2&itemId=steak&quantity=1";
+
+    private StubExchange exchange;
+    private byte[] body;
+    private FormData form;
+
+    @Setup
+    public void setup() {
+        exchange = new StubExchange("POST", "/api/order", BODY);
+        body = BODY.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        form = new FormData();
+    }
+
+    @Benchmark
+    public int readForm() throws IOException {
+        exchange.reset();
+        ExchangeBuffers buffers = ExchangeBuffers.acquire();
+        try {
+            return buffers.readForm(exchange).size();
+        } finally {
+            ExchangeBuffers.release(buffers);
+        }
+    }
+
+    @Benchmark
+    public void parseOrderFields(Blackhole bh) {
+        form.parse(body, 0, body.length);
+        bh.consume(form.get("userName"));
+        bh.consume(form.get("userEmail"));
+        bh.consume(form.get("userPhone"));
+        for (int i = 0; i < form.count("itemId"); i++) {
+            bh.consume(form.get("itemId", i));
+            bh.consume(form.getInt("quantity", i, 1));
+        }
+    }
+
+    @Benchmark
+    public int writeResponse() throws IOException {
+        exchange.reset();
+        ExchangeBuffers buffers = ExchangeBuffers.acquire();
+        try {
+            buffers.response.append("Order created! ").append("ORD12345")
+                .append(" - Items: ").append(3).append(" - Total: ").appendCents(7041);
+            buffers.response.send(exchange, 200, RestaurantBackend.TEXT);
+            return exchange.getResponseCode();
+        } finally {
+            ExchangeBuffers.release(buffers);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.restaurant;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import com.sun.net.httpserver.*;
+
+// In-memory HttpExchange so handlers can be benchmarked without sockets.
+// reset() rewinds it for the next invocation instead of allocating a new one.
+class StubExchange extends HttpExchange {
+    private static final InetSocketAddress LOCAL = new InetSocketAddress("127.0.0.1", 8080);
+
+    private final String method;
+    private final URI uri;
+    private final byte[] body;
+    private final Headers requestHeaders = new Headers();
+    private Headers responseHeaders = new Headers();
+    private ByteArrayInputStream in;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    private int responseCode = -1;
+
+    StubExchange(String method, String uri, String body) {
+        this.method = method;
+        this.uri = URI.create(uri);
+        this.body = body.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        reset();
+    }
+
+    void reset() {
+        in = new ByteArrayInputStream(body);
+        out.reset();
+        responseHeaders = new Headers();
+        responseCode = -1;
+    }
+
+    String responseText() {
+        return out.toString(java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    @Override public Headers getRequestHeaders() { return requestHeaders; }
+    @Override public Headers getResponseHeaders() { return responseHeaders; }
+    @Override public URI getRequestURI() { return uri; }
+    @Override public String getRequestMethod() { return method; }
+    @Override public HttpContext getHttpContext() { return null; }
+    @Override public void close() { }
+    @Override public InputStream getRequestBody() { return in; }
+    @Override public OutputStream getResponseBody() { return out; }
+    @Override public void sendResponseHeaders(int rCode, long responseLength) { responseCode = rCode; }
+    @Override public InetSocketAddress getRemoteAddress() { return LOCAL; }
+    @Override public int getResponseCode() { return responseCode; }
+    @Override public InetSocketAddress getLocalAddress() { return LOCAL; }
+    @Override public String getProtocol() { return "HTTP/1.1"; }
+    @Override public Object getAttribute(String name) { return null; }
+    @Override public void setAttribute(String name, Object value) { }
+    @Override public void setStreams(InputStream i, OutputStream o) { }
+    @Override public HttpPrincipal getPrincipal() { return null; }
+}
@@ -0,0 +1,87 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+// Sheds load in front of the order endpoints before any work is done: a client over its
+// rate gets 429, and a request over the concurrency limit gets 503. Both carry
+// Retry-After and a one-line body (JSON under /api/v2), and neither holds a worker
+// for more than the time it takes to write them. Requests the predicate does not
+// select (e.g. GETs) pass straight through
+public class AdmissionFilter extends Filter {
+    private final ClientRateLimiter rateLimiter;
+    private final ConcurrencyLimiter concurrency;
+    private final Predicate<HttpExchange> guarded;
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+
+    public AdmissionFilter(ClientRateLimiter rateLimiter, ConcurrencyLimiter concurrency,
+                           Predicate<HttpExchange> guarded) {
+        this.rateLimiter = rateLimiter;
+        this.concurrency = concurrency;
+        this.guarded = guarded;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (!guarded.test(exchange)) {
+            chain.doFilter(exchange);
+            return;
+        }
+        long wait = rateLimiter.tryAcquire(clientOf(exchange));
+        if (wait > 0) {
+            rateLimited.increment();
+            reject(exchange, 429, TimeUnit.NANOSECONDS.toSeconds(wait) + 1, "Too many requests");
+            return;
+        }
+        if (!concurrency.tryAcquire()) {
+            overloaded.increment();
+            reject(exchange, 503, 1, "Server busy");
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            concurrency.release(System.nanoTime() - start);
+        }
+    }
+
+    private static String clientOf(HttpExchange exchange) {
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+    }
+
+    // Short error response; Retry-After is only sent when retryAfterSeconds is positive
+    static void reject(HttpExchange exchange, int status, long retryAfterSeconds, String message)
+            throws IOException {
+        if (retryAfterSeconds > 0) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+        }
+        ExchangeBuffers buffers = ExchangeBuffers.acquire();
+        try {
+            if (exchange.getRequestURI().getPath().startsWith("/api/v2/")) {
+                buffers.json().beginObject().name("error").value(message).endObject();
+                buffers.response.send(exchange, status, RestaurantBackend.JSON);
+            } else {
+                buffers.response.append("Error: ").append(message);
+                buffers.response.send(exchange, status, RestaurantBackend.TEXT);
+            }
+        } finally {
+            ExchangeBuffers.release(buffers);
+        }
+    }
+
+    public long getRateLimitedCount() { return rateLimited.sum(); }
+    public long getOverloadedCount() { return overloaded.sum(); }
+
+    @Override
+    public String description() {
+        return "admission control";
+    }
+}
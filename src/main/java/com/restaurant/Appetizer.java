@@ -13,10 +13,10 @@ public class Appetizer extends MenuItem {
     }
     
     public String getServingSize() { return servingSize; }
-    public void setServingSize(String servingSize) { this.servingSize = servingSize; }
+    public void setServingSize(String servingSize) { checkMutable(); this.servingSize = servingSize; }
     
     public boolean isVegetarian() { return isVegetarian; }
-    public void setVegetarian(boolean vegetarian) { isVegetarian = vegetarian; }
+    public void setVegetarian(boolean vegetarian) { checkMutable(); isVegetarian = vegetarian; }
     
     // Polymorphism: Method Overriding
     @Override
@@ -0,0 +1,58 @@
+package com.restaurant;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-client token bucket, kept as one "theoretical arrival time" per client (GCRA).
+// Each request moves it forward by one emission interval; a request is allowed while
+// that time is no more than the burst allowance ahead of now. The check is a single
+// compare-and-set and the bucket needs no refill thread
+public class ClientRateLimiter {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final ConcurrentHashMap<String, AtomicLong> clients = new ConcurrentHashMap<>();
+
+    // ratePerSecond sustained, with up to burst requests back to back
+    public ClientRateLimiter(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.intervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        this.burstNanos = intervalNanos * (burst - 1);
+    }
+
+    // Returns 0 when allowed, otherwise the nanoseconds until the client may retry
+    public long tryAcquire(String client) {
+        long now = System.nanoTime();
+        AtomicLong tat = clients.computeIfAbsent(client, k -> new AtomicLong(now));
+        while (true) {
+            long current = tat.get();
+            long start = Math.max(current, now);
+            if (start - now > burstNanos) {
+                return start - now - burstNanos;
+            }
+            if (tat.compareAndSet(current, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    // Drops clients whose bucket has refilled completely; they start again full anyway
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        Iterator<AtomicLong> it = clients.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().get() - now <= 0) {
+                it.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    public int size() {
+        return clients.size();
+    }
+}
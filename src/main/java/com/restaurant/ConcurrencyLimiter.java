@@ -0,0 +1,119 @@
+package com.restaurant;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+// Caps requests in flight at a limit that follows measured latency (AIMD).
+// The baseline is the lowest latency seen in this or the previous window. A request that
+// completes within tolerance times that baseline, while the limit is nearly used up,
+// raises the limit by 1/limit (about +1 per limit's worth of requests). A slower one
+// cuts it by the backoff factor, at most once per window, so queueing shows up as
+// fast rejections instead of growing latency for everyone
+public class ConcurrencyLimiter {
+    // Below this, a latency is never called slow: at sub-millisecond baselines ordinary
+    // jitter is more than the tolerance and would walk the limit down for nothing
+    private static final long NOISE_FLOOR_NANOS = 2_000_000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoff;
+    private final long windowNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong limitBits;
+    private final AtomicLong lastDecrease = new AtomicLong();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicLong windowMin = new AtomicLong(Long.MAX_VALUE);
+    private volatile long baselineNanos = Long.MAX_VALUE;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                              double tolerance, double backoff, long windowMillis) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 0 < min <= initial <= max");
+        }
+        if (tolerance < 1 || backoff <= 0 || backoff >= 1 || windowMillis <= 0) {
+            throw new IllegalArgumentException("Invalid tolerance, backoff or window");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoff = backoff;
+        this.windowNanos = windowMillis * 1_000_000L;
+        this.limitBits = new AtomicLong(Double.doubleToLongBits(initialLimit));
+    }
+
+    public boolean tryAcquire() {
+        int limit = getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Called once per acquired permit with how long the request took
+    public void release(long latencyNanos) {
+        int wasInFlight = inFlight.getAndDecrement();
+        long now = System.nanoTime();
+        sample(latencyNanos, now);
+        long baseline = baselineNanos;
+        if (baseline == Long.MAX_VALUE || latencyNanos <= Math.max(NOISE_FLOOR_NANOS, baseline * tolerance)) {
+            // Only grow when the limit is actually what constrains us
+            if (wasInFlight * 2 >= getLimit()) {
+                adjust(limit -> Math.min(maxLimit, limit + 1 / limit));
+            }
+        } else {
+            long last = lastDecrease.get();
+            if (now - last >= windowNanos && lastDecrease.compareAndSet(last, now)) {
+                adjust(limit -> Math.max(minLimit, limit * backoff));
+            }
+        }
+    }
+
+    // Tracks the minimum of each window; at a window boundary the baseline restarts from
+    // the finished window's minimum, so it can rise again when the system's floor really changes
+    private void sample(long latencyNanos, long now) {
+        long min;
+        while (latencyNanos < (min = windowMin.get()) && !windowMin.compareAndSet(min, latencyNanos)) {
+            // retry
+        }
+        if (latencyNanos < baselineNanos) {
+            baselineNanos = latencyNanos;
+        }
+        long start = windowStart.get();
+        if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+            long finished = windowMin.getAndSet(Long.MAX_VALUE);
+            if (finished != Long.MAX_VALUE) {
+                baselineNanos = finished;
+            }
+        }
+    }
+
+    private void adjust(DoubleUnaryOperator adjustment) {
+        while (true) {
+            long bits = limitBits.get();
+            double next = adjustment.applyAsDouble(Double.longBitsToDouble(bits));
+            if (limitBits.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getBaselineNanos() {
+        long baseline = baselineNanos;
+        return baseline == Long.MAX_VALUE ? 0 : baseline;
+    }
+}
@@ -0,0 +1,80 @@
+package com.restaurant;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+// Reloads RestaurantConfig when its file changes. Watches the file's directory (a
+// WatchService cannot watch a single file) and, after a change to the file, waits a
+// short quiet period so an editor's several writes produce one reload. A file that
+// fails to parse or validate is reported and the previous snapshot stays in force
+public class ConfigWatcher implements Closeable {
+    private static final long SETTLE_MILLIS = 200;
+
+    private final Path file;
+    private final WatchService watcher;
+    private final Thread thread;
+
+    public ConfigWatcher(Path file) throws IOException {
+        this.file = file.toAbsolutePath().normalize();
+        Path dir = this.file.getParent();
+        this.watcher = dir.getFileSystem().newWatchService();
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watchLoop, "config-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // Loads the file once; used at startup before the watcher takes over
+    public static RestaurantConfig reload(Path file) {
+        try {
+            RestaurantConfig config = RestaurantConfig.load(file);
+            System.out.println("Config loaded from " + file + ": " + config);
+            return config;
+        } catch (IOException | IllegalArgumentException ex) {
+            System.out.println("Config " + file + " not applied: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private void watchLoop() {
+        Path name = file.getFileName();
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                    changed = true;
+                }
+            }
+            key.reset();
+            if (!changed) continue;
+            try {
+                // Swallow the rest of a burst of writes before reading the file
+                WatchKey more;
+                while ((more = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            if (Files.exists(file)) {
+                reload(file);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+        thread.interrupt();
+    }
+}
@@ -12,11 +12,16 @@ public class CreditCardPayment implements PaymentProcessor {
     
     @Override
     public boolean processPayment(double amount) {
+        return processPaymentCents(Money.ofDollars(amount));
+    }
+    
+    @Override
+    public boolean processPaymentCents(long amountCents) {
         // Data Validation
-        if (amount <= 0) {
+        if (amountCents <= 0) {
             throw new IllegalArgumentException("Payment amount must be positive");
         }
-        System.out.println("Processing credit card payment of $" + amount);
+        System.out.println("Processing credit card payment of " + Money.format(amountCents));
         return true;
     }
     
@@ -27,7 +32,12 @@ public class CreditCardPayment implements PaymentProcessor {
     
     @Override
     public boolean refund(double amount) {
-        System.out.println("Refunding $" + amount + " to credit card");
+        return refundCents(Money.ofDollars(amount));
+    }
+    
+    @Override
+    public boolean refundCents(long amountCents) {
+        System.out.println("Refunding " + Money.format(amountCents) + " to credit card");
         return true;
     }
 }
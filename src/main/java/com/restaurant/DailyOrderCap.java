@@ -0,0 +1,97 @@
+package com.restaurant;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+// Lock-free count of orders accepted today. Day and count share one long
+// (epoch day in the high half, count in the low half), so the midnight rollover and
+// the increment are one compare-and-set and no order can be counted against the wrong day
+public class DailyOrderCap {
+    private final AtomicLong state = new AtomicLong();
+    private final IntSupplier limit;
+    private final Clock clock;
+
+    // The limit is read on every call, so a changed config takes effect immediately
+    public DailyOrderCap(IntSupplier limit, Clock clock) {
+        this.limit = limit;
+        this.clock = clock;
+    }
+
+    // Returns false when today's limit has been reached; a limit of 0 or less means no cap
+    public boolean tryAcquire() {
+        return tryAcquire(limit.getAsInt());
+    }
+
+    // Same, against a limit the caller already read (e.g. from its own config snapshot)
+    public boolean tryAcquire(int max) {
+        long today = LocalDate.now(clock).toEpochDay();
+        while (true) {
+            long current = state.get();
+            long next;
+            if (current >>> 32 != today) {
+                next = today << 32 | 1;
+            } else {
+                int count = (int) current;
+                if (max > 0 && count >= max) {
+                    return false;
+                }
+                next = current + 1;
+            }
+            if (state.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // Gives back an acquisition whose order was not created; ignored after a rollover
+    public void release() {
+        release(LocalDate.now(clock));
+    }
+
+    // Gives back an acquisition made on the given day, e.g. for an order cancelled after
+    // its payment was declined; ignored once that day is over
+    public void release(LocalDate acquiredOn) {
+        long day = acquiredOn.toEpochDay();
+        if (day != LocalDate.now(clock).toEpochDay()) {
+            return;
+        }
+        while (true) {
+            long current = state.get();
+            if (current >>> 32 != day || (int) current == 0) {
+                return;
+            }
+            if (state.compareAndSet(current, current - 1)) {
+                return;
+            }
+        }
+    }
+
+    public int getCountToday() {
+        long current = state.get();
+        return current >>> 32 == LocalDate.now(clock).toEpochDay() ? (int) current : 0;
+    }
+
+    public int getLimit() {
+        return limit.getAsInt();
+    }
+
+    // Thrown when an order is refused because today's limit has been reached
+    public static class LimitReachedException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+        private final long retryAfterSeconds;
+        public LimitReachedException(long retryAfterSeconds) {
+            super("Daily order limit reached");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+        public long getRetryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    public long secondsUntilReset() {
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        ZonedDateTime midnight = now.toLocalDate().plusDays(1).atStartOfDay(now.getZone());
+        return Math.max(1, java.time.Duration.between(now, midnight).getSeconds());
+    }
+}
@@ -14,6 +14,7 @@ public class Dessert extends MenuItem {
     
     public int getCalories() { return calories; }
     public void setCalories(int calories) {
+        checkMutable();
         if (calories < 0) {
             throw new IllegalArgumentException("Calories cannot be negative");
         }
@@ -21,7 +22,7 @@ public class Dessert extends MenuItem {
     }
     
     public boolean isContainsNuts() { return containsNuts; }
-    public void setContainsNuts(boolean containsNuts) { this.containsNuts = containsNuts; }
+    public void setContainsNuts(boolean containsNuts) { checkMutable(); this.containsNuts = containsNuts; }
     
     // Polymorphism: Method Overriding
     @Override
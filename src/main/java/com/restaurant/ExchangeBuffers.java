@@ -0,0 +1,73 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import com.sun.net.httpserver.HttpExchange;
+
+// Per-request scratch space (body bytes, form slots, response bytes) drawn from a shared
+// pool and handed back afterwards. A pool rather than a ThreadLocal, so it also works
+// when every request runs on a fresh virtual thread.
+final class ExchangeBuffers {
+    static final int MAX_BODY = 1 << 20;
+    // Buffers that grew past this are dropped instead of pooled, so one big request
+    // does not pin memory forever
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final ArrayBlockingQueue<ExchangeBuffers> POOL = new ArrayBlockingQueue<>(256);
+
+    final FormData form = new FormData();
+    final ResponseBuffer response = new ResponseBuffer();
+    private final JsonWriter json = new JsonWriter(response);
+    private byte[] body = new byte[1024];
+    private int bodyLength;
+
+    static ExchangeBuffers acquire() {
+        ExchangeBuffers buffers = POOL.poll();
+        if (buffers == null) {
+            buffers = new ExchangeBuffers();
+        }
+        buffers.response.reset();
+        buffers.bodyLength = 0;
+        return buffers;
+    }
+
+    static void release(ExchangeBuffers buffers) {
+        if (buffers.body.length <= MAX_POOLED_CAPACITY
+                && buffers.response.capacity() <= MAX_POOLED_CAPACITY) {
+            POOL.offer(buffers);
+        }
+    }
+
+    // Reads the whole request body into the pooled array
+    int readBody(HttpExchange e) throws IOException {
+        bodyLength = 0;
+        try (InputStream in = e.getRequestBody()) {
+            int n;
+            while ((n = in.read(body, bodyLength, body.length - bodyLength)) > 0) {
+                bodyLength += n;
+                if (bodyLength == body.length) {
+                    if (body.length >= MAX_BODY) {
+                        throw new IllegalArgumentException("Request body too large");
+                    }
+                    body = java.util.Arrays.copyOf(body, Math.min(body.length * 2, MAX_BODY));
+                }
+            }
+        }
+        return bodyLength;
+    }
+
+    byte[] body() {
+        return body;
+    }
+
+    // JSON writer over this request's response buffer
+    JsonWriter json() {
+        return json.reset();
+    }
+
+    FormData readForm(HttpExchange e) throws IOException {
+        readBody(e);
+        form.parse(body, 0, bodyLength);
+        return form;
+    }
+}
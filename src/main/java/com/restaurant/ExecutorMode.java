@@ -0,0 +1,74 @@
+package com.restaurant;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// How the HTTP server runs its handlers, selected once at startup
+public enum ExecutorMode {
+    INLINE,   // every exchange on the single HttpServer dispatcher thread
+    POOL,     // bounded platform-thread pool with a bounded queue
+    VIRTUAL;  // one virtual thread per exchange (Java 21+)
+
+    public static ExecutorMode fromString(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return POOL;
+        }
+        switch (value.trim().toLowerCase()) {
+            case "inline":
+                return INLINE;
+            case "pool":
+                return POOL;
+            case "virtual":
+                return VIRTUAL;
+            default:
+                throw new IllegalArgumentException("Unknown executor mode: " + value);
+        }
+    }
+
+    // Returns null for INLINE, which tells HttpServer to use its own dispatcher thread
+    public ExecutorService create(int threads, int queueCapacity) {
+        switch (this) {
+            case INLINE:
+                return null;
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadExecutor();
+                if (virtual != null) {
+                    return virtual;
+                }
+                System.out.println("Virtual threads not available on this JVM, falling back to pool");
+                return newBoundedPool(threads, queueCapacity);
+            default:
+                return newBoundedPool(threads, queueCapacity);
+        }
+    }
+
+    // When the queue is full the dispatcher runs the exchange itself, which stops it
+    // accepting new connections until a worker frees up (backpressure instead of drops)
+    static ThreadPoolExecutor newBoundedPool(int threads, int queueCapacity) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        AtomicInteger counter = new AtomicInteger(1);
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "http-worker-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // Looked up reflectively so the sources still compile on Java 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+}
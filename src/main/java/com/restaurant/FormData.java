@@ -0,0 +1,146 @@
+package com.restaurant;
+
+import java.nio.charset.StandardCharsets;
+
+// application/x-www-form-urlencoded decoder that parses a body once into reusable slots.
+// Decoded bytes go into one internal array and each field is an (offset, length) pair,
+// so parsing and key lookups allocate nothing; only values asked for as Strings do.
+// Fields with an empty value are skipped, as the old split-based parser did.
+final class FormData {
+    private byte[] data = new byte[512];
+    private int[] keyOffset = new int[16];
+    private int[] keyLength = new int[16];
+    private int[] valueOffset = new int[16];
+    private int[] valueLength = new int[16];
+    private int count;
+
+    void parse(byte[] src, int offset, int length) {
+        count = 0;
+        if (data.length < length) {
+            data = new byte[Math.max(length, data.length * 2)];
+        }
+        int p = 0;
+        int keyStart = 0;
+        int valueStart = -1;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = src[i];
+            if (b == '&') {
+                addField(keyStart, valueStart, p);
+                keyStart = p;
+                valueStart = -1;
+            } else if (b == '=' && valueStart < 0) {
+                valueStart = p;
+            } else if (b == '+') {
+                data[p++] = ' ';
+            } else if (b == '%' && i + 2 < end && hex(src[i + 1]) >= 0 && hex(src[i + 2]) >= 0) {
+                data[p++] = (byte) ((hex(src[i + 1]) << 4) | hex(src[i + 2]));
+                i += 2;
+            } else {
+                data[p++] = b;
+            }
+        }
+        addField(keyStart, valueStart, p);
+    }
+
+    // For query strings, which arrive as Strings; raw non-ASCII characters are UTF-8 encoded
+    void parse(String query) {
+        if (query == null) {
+            count = 0;
+            return;
+        }
+        byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+        parse(bytes, 0, bytes.length);
+    }
+
+    private void addField(int keyStart, int valueStart, int end) {
+        if (valueStart < 0 || valueStart == keyStart || valueStart == end) {
+            return;
+        }
+        if (count == keyOffset.length) {
+            int n = count * 2;
+            keyOffset = java.util.Arrays.copyOf(keyOffset, n);
+            keyLength = java.util.Arrays.copyOf(keyLength, n);
+            valueOffset = java.util.Arrays.copyOf(valueOffset, n);
+            valueLength = java.util.Arrays.copyOf(valueLength, n);
+        }
+        keyOffset[count] = keyStart;
+        keyLength[count] = valueStart - keyStart;
+        valueOffset[count] = valueStart;
+        valueLength[count] = end - valueStart;
+        count++;
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        return -1;
+    }
+
+    // Keys are compared byte for byte against ASCII names
+    private boolean keyIs(int field, String key) {
+        int len = keyLength[field];
+        if (len != key.length()) return false;
+        int off = keyOffset[field];
+        for (int i = 0; i < len; i++) {
+            if (data[off + i] != key.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // Slot of the index-th field with this key, or -1
+    private int find(String key, int index) {
+        for (int f = 0; f < count; f++) {
+            if (keyIs(f, key) && index-- == 0) return f;
+        }
+        return -1;
+    }
+
+    int count(String key) {
+        int n = 0;
+        for (int f = 0; f < count; f++) {
+            if (keyIs(f, key)) n++;
+        }
+        return n;
+    }
+
+    String get(String key) {
+        return get(key, 0);
+    }
+
+    String get(String key, int index) {
+        int f = find(key, index);
+        return f < 0 ? null : new String(data, valueOffset[f], valueLength[f], StandardCharsets.UTF_8);
+    }
+
+    // Non-negative integer value, or the default if the field is absent
+    int getInt(String key, int index, int defaultValue) {
+        int f = find(key, index);
+        if (f < 0) return defaultValue;
+        long value = 0;
+        int off = valueOffset[f];
+        int len = valueLength[f];
+        for (int i = 0; i < len; i++) {
+            int digit = data[off + i] - '0';
+            if (digit < 0 || digit > 9 || (value = value * 10 + digit) > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid " + key + ": " + get(key, index));
+            }
+        }
+        return (int) value;
+    }
+
+    boolean valueEquals(String key, String expected) {
+        int f = find(key, 0);
+        if (f < 0 || valueLength[f] != expected.length()) return false;
+        int off = valueOffset[f];
+        for (int i = 0; i < valueLength[f]; i++) {
+            if (data[off + i] != expected.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    int size() {
+        return count;
+    }
+}
@@ -0,0 +1,209 @@
+package com.restaurant;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Responses remembered by idempotency key, so a retried request can be answered with
+// the original response instead of being run again. Keys are split into shards, each
+// an insertion-ordered map behind its own lock: lookups and inserts are O(1), entries
+// expire a fixed time after they were created, and when a shard is over its byte
+// budget its oldest entries are dropped first
+public class IdempotencyCache {
+    // Rough per-entry cost on top of the body and key: map node, entry, future, headers
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final Shard[] shards;
+    private final int mask;
+    private final long maxBytesPerShard;
+    private final long ttlMillis;
+
+    public IdempotencyCache(int shardCount, long maxBytes, long ttlMillis) {
+        if (shardCount <= 0 || Integer.bitCount(shardCount) != 1) {
+            throw new IllegalArgumentException("Shard count must be a positive power of two");
+        }
+        if (maxBytes < shardCount * 1024L) {
+            throw new IllegalArgumentException("Byte budget must be at least 1 KB per shard");
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("TTL must be positive");
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+        this.mask = shardCount - 1;
+        this.maxBytesPerShard = maxBytes / shardCount;
+        this.ttlMillis = ttlMillis;
+    }
+
+    // A finished response, exactly as first sent
+    public static final class Response {
+        private final int status;
+        private final String contentType;
+        private final byte[] body;
+
+        public Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public int getStatus() { return status; }
+        public String getContentType() { return contentType; }
+        public byte[] getBody() { return body; }
+    }
+
+    // Completes with the response once the first request finishes, or with null when its
+    // response was not worth keeping (the retry should then run for real)
+    public static final class Entry {
+        private final long fingerprint;
+        private final long createdAt;
+        private final CompletableFuture<Response> response = new CompletableFuture<>();
+        private int cost;
+
+        public Entry(long fingerprint) {
+            this.fingerprint = fingerprint;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        public long getFingerprint() { return fingerprint; }
+        public CompletableFuture<Response> getResponse() { return response; }
+    }
+
+    private static final class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        long bytes;
+    }
+
+    private Shard shardFor(String key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    // Returns the existing entry for the key, or null after storing the given one, which
+    // the caller then owns and must pass to complete or abandon
+    public Entry reserve(String key, Entry entry) {
+        Shard shard = shardFor(key);
+        shard.lock.lock();
+        try {
+            evictExpired(shard, entry.createdAt);
+            Entry existing = shard.entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            entry.cost = ENTRY_OVERHEAD + 2 * key.length();
+            shard.entries.put(key, entry);
+            shard.bytes += entry.cost;
+            trim(shard);
+            return null;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    // Stores the response for replay and wakes any retries waiting on it. Only the entry
+    // the caller reserved is charged for it: if that one was evicted and the key reserved
+    // again by another request, the newer entry is left alone
+    public void complete(String key, Entry entry, Response response) {
+        Shard shard = shardFor(key);
+        shard.lock.lock();
+        try {
+            if (shard.entries.get(key) == entry && !entry.response.isDone()) {
+                int extra = response.body.length + response.contentType.length() * 2;
+                entry.cost += extra;
+                shard.bytes += extra;
+                trim(shard);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        entry.response.complete(response);
+    }
+
+    // Forgets the caller's reservation, e.g. after a failure a retry should be allowed to
+    // fix; a newer reservation of the same key stays
+    public void abandon(String key, Entry entry) {
+        Shard shard = shardFor(key);
+        shard.lock.lock();
+        try {
+            if (shard.entries.remove(key, entry)) {
+                shard.bytes -= entry.cost;
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        entry.response.complete(null);
+    }
+
+    // Oldest first; an entry still in progress may be dropped too, and its waiters then
+    // simply get no replay
+    private void trim(Shard shard) {
+        Iterator<Entry> it = shard.entries.values().iterator();
+        while (shard.bytes > maxBytesPerShard && it.hasNext()) {
+            Entry oldest = it.next();
+            it.remove();
+            shard.bytes -= oldest.cost;
+            oldest.response.complete(null);
+        }
+    }
+
+    // Entries are in creation order, so stop at the first one still within its TTL
+    private int evictExpired(Shard shard, long now) {
+        int evicted = 0;
+        Iterator<Entry> it = shard.entries.values().iterator();
+        while (it.hasNext()) {
+            Entry oldest = it.next();
+            if (now - oldest.createdAt < ttlMillis) {
+                break;
+            }
+            it.remove();
+            shard.bytes -= oldest.cost;
+            oldest.response.complete(null);
+            evicted++;
+        }
+        return evicted;
+    }
+
+    // Called periodically so quiet shards still release expired responses
+    public int evictExpired() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                evicted += evictExpired(shard, now);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    public int size() {
+        int total = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                total += shard.entries.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    public long bytes() {
+        long total = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                total += shard.bytes;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,201 @@
+package com.restaurant;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+// Makes order submission safe to retry. A POST carrying an Idempotency-Key header (or,
+// on the paths formKeys selects, an idempotencyKey form field) runs once; later requests with the same key and body get
+// the first response replayed byte for byte, without creating, notifying or charging
+// again. A retry that arrives while the first is still running waits for its result.
+// Reusing a key with a different body is refused with 422. Responses that a retry
+// could legitimately change (5xx, 429) are not kept, nor are v1 answers made only of
+// "Error: ..." lines, which v1 sends with 200 and which mean nothing was created.
+// Keys live in a scope chosen per request, so two callers' keys only collide where they
+// act on the same thing
+public class IdempotencyFilter extends Filter {
+    public static final String HEADER = "Idempotency-Key";
+    private static final String FORM_FIELD = "idempotencyKey";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final byte[] ERROR_LINE = "Error: ".getBytes(StandardCharsets.US_ASCII);
+
+    private final IdempotencyCache cache;
+    private final long waitMillis;
+    private final Predicate<HttpExchange> formKeys;
+    private final Function<HttpExchange, String> scope;
+    private final LongAdder replayed = new LongAdder();
+
+    // Other POSTs are only keyed by the header, so their bodies are not read here. scope
+    // names the space a request's key belongs to, or is null when the request has no
+    // stable one (it then runs unkeyed)
+    public IdempotencyFilter(IdempotencyCache cache, long waitMillis, Predicate<HttpExchange> formKeys,
+                             Function<HttpExchange, String> scope) {
+        this.cache = cache;
+        this.waitMillis = waitMillis;
+        this.formKeys = formKeys;
+        this.scope = scope;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            chain.doFilter(exchange);
+            return;
+        }
+        String key = exchange.getRequestHeaders().getFirst(HEADER);
+        byte[] body = null;
+        if (key == null && formKeys.test(exchange)) {
+            body = readBody(exchange);
+            FormData form = new FormData();
+            form.parse(body, 0, body.length);
+            key = form.get(FORM_FIELD);
+        }
+        String space = key != null ? scope.apply(exchange) : null;
+        if (space == null) {
+            if (body != null) exchange.setStreams(new ByteArrayInputStream(body), null);
+            chain.doFilter(exchange);
+            return;
+        }
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            AdmissionFilter.reject(exchange, 400, 0, "Invalid idempotency key");
+            return;
+        }
+        if (body == null) body = readBody(exchange);
+        String scopedKey = space + ' ' + key;
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        long fingerprint = crc.getValue() << 32 | body.length;
+
+        IdempotencyCache.Entry mine = new IdempotencyCache.Entry(fingerprint);
+        IdempotencyCache.Entry existing = cache.reserve(scopedKey, mine);
+        if (existing != null) {
+            replay(exchange, existing, fingerprint);
+            return;
+        }
+        Capture capture = new Capture(exchange.getResponseBody());
+        exchange.setStreams(new ByteArrayInputStream(body), capture);
+        boolean kept = false;
+        try {
+            chain.doFilter(exchange);
+            int status = exchange.getResponseCode();
+            String type = exchange.getResponseHeaders().getFirst("Content-Type");
+            if (status > 0 && status < 500 && status != 429 && !capture.overflowed
+                    && !(RestaurantBackend.TEXT.equals(type) && onlyErrors(capture.toByteArray()))) {
+                cache.complete(scopedKey, mine, new IdempotencyCache.Response(status,
+                    type != null ? type : RestaurantBackend.TEXT, capture.toByteArray()));
+                kept = true;
+            }
+        } finally {
+            if (!kept) cache.abandon(scopedKey, mine);
+        }
+    }
+
+    private void replay(HttpExchange exchange, IdempotencyCache.Entry entry, long fingerprint)
+            throws IOException {
+        if (entry.getFingerprint() != fingerprint) {
+            AdmissionFilter.reject(exchange, 422, 0, "Idempotency key reused with a different request");
+            return;
+        }
+        IdempotencyCache.Response response;
+        try {
+            response = entry.getResponse().get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            AdmissionFilter.reject(exchange, 409, 1, "A request with this idempotency key is still in progress");
+            return;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for original request");
+        } catch (ExecutionException ex) {
+            response = null;
+        }
+        if (response == null) {
+            // The original was not kept (failed or evicted); the client should simply retry
+            AdmissionFilter.reject(exchange, 409, 1, "Original request did not complete; retry");
+            return;
+        }
+        replayed.increment();
+        exchange.getResponseHeaders().set("Content-Type", response.getContentType());
+        exchange.getResponseHeaders().set("Idempotent-Replayed", "true");
+        byte[] content = response.getBody();
+        exchange.sendResponseHeaders(response.getStatus(), content.length == 0 ? -1 : content.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(content);
+        }
+    }
+
+    // True for a text response whose every line reports a failed order
+    static boolean onlyErrors(byte[] text) {
+        int start = 0;
+        boolean any = false;
+        while (start < text.length) {
+            int end = start;
+            while (end < text.length && text[end] != '\n') end++;
+            if (end > start) {
+                if (!Arrays.equals(text, start, Math.min(end, start + ERROR_LINE.length),
+                        ERROR_LINE, 0, ERROR_LINE.length)) {
+                    return false;
+                }
+                any = true;
+            }
+            start = end + 1;
+        }
+        return any;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(ExchangeBuffers.MAX_BODY + 1);
+            if (body.length > ExchangeBuffers.MAX_BODY) {
+                throw new IOException("Request body too large");
+            }
+            return body;
+        }
+    }
+
+    // Passes the response through while keeping a copy, up to the cacheable size
+    private static final class Capture extends FilterOutputStream {
+        private static final int MAX_CAPTURE = 64 * 1024;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream(256);
+        boolean overflowed;
+
+        Capture(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (!overflowed && copy.size() < MAX_CAPTURE) copy.write(b);
+            else overflowed = true;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (!overflowed && copy.size() + len <= MAX_CAPTURE) copy.write(b, off, len);
+            else overflowed = true;
+        }
+
+        byte[] toByteArray() {
+            return copy.toByteArray();
+        }
+    }
+
+    public long getReplayedCount() {
+        return replayed.sum();
+    }
+
+    @Override
+    public String description() {
+        return "idempotency keys";
+    }
+}
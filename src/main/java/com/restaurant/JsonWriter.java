@@ -0,0 +1,124 @@
+package com.restaurant;
+
+// Minimal streaming JSON writer over a ResponseBuffer. No reflection and no tree:
+// callers emit names and values in order and the writer only tracks where commas go.
+final class JsonWriter {
+    private static final int MAX_DEPTH = 32;
+
+    private final ResponseBuffer out;
+    private final boolean[] hasElements = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(ResponseBuffer out) {
+        this.out = out;
+    }
+
+    // Reuse with a buffer that has just been reset
+    JsonWriter reset() {
+        depth = 0;
+        afterName = false;
+        return this;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasElements[depth - 1]) out.append(',');
+            hasElements[depth - 1] = true;
+        }
+    }
+
+    private JsonWriter open(char bracket) {
+        beforeValue();
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested too deeply");
+        }
+        out.append(bracket);
+        hasElements[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) {
+        depth--;
+        out.append(bracket);
+        return this;
+    }
+
+    JsonWriter beginObject() { return open('{'); }
+    JsonWriter endObject() { return close('}'); }
+    JsonWriter beginArray() { return open('['); }
+    JsonWriter endArray() { return close(']'); }
+
+    JsonWriter name(String name) {
+        beforeValue();
+        writeString(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) {
+        beforeValue();
+        if (value == null) {
+            out.append("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    JsonWriter value(long value) {
+        beforeValue();
+        out.append(value);
+        return this;
+    }
+
+    JsonWriter value(boolean value) {
+        beforeValue();
+        out.append(value ? "true" : "false");
+        return this;
+    }
+
+    // A value that is already JSON, e.g. an order as another shard wrote it
+    JsonWriter raw(CharSequence json) {
+        beforeValue();
+        out.append(json);
+        return this;
+    }
+
+    // Money as a JSON number with two decimals, e.g. 12.99
+    JsonWriter cents(long cents) {
+        beforeValue();
+        out.appendDecimal(cents);
+        return this;
+    }
+
+    private void writeString(String s) {
+        out.append('"');
+        int n = s.length();
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '<') continue;
+            out.append(s, start, i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    // Control characters, and '<' so JSON is safe to inline in HTML
+                    out.append("\\u00");
+                    out.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            }
+            start = i + 1;
+        }
+        out.append(s, start, n);
+        out.append('"');
+    }
+}
@@ -0,0 +1,385 @@
+package com.restaurant;
+
+import java.io.UncheckedIOException;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Moves orders through the kitchen. Each order is split into one ticket per line, and
+// each ticket goes to the station that cooks that kind of item. A station's queue is
+// ordered by latest start time (promised ready time minus the ticket's prep time), so
+// long dishes are fired first and every line of an order comes up at about the same time.
+// Cooks take from their own station. One whose station is empty steals the most urgent
+// ticket from a station that is backed up, i.e. has more tickets waiting than idle cooks
+// of its own to start them, so a ticket is never taken from under an idle home cook. The first ticket started moves the order to Preparing,
+// the last one finished moves it to Ready.
+public class KitchenScheduler {
+    public enum Station {
+        GRILL,   // main courses
+        PREP,    // appetizers and salads
+        PASTRY;  // desserts
+
+        static Station forItem(MenuItem item) {
+            if (item instanceof MainCourse) return GRILL;
+            if (item instanceof Dessert) return PASTRY;
+            return PREP;
+        }
+    }
+
+    // Kitchen minutes per item when the menu does not say (only main courses carry a cooking time)
+    private static final int DEFAULT_MAIN_MINUTES = 20;
+    private static final int APPETIZER_MINUTES = 8;
+    private static final int DESSERT_MINUTES = 4;
+    // Longest a single ticket may take, however large the quantity
+    static final int MAX_PREP_MINUTES = 24 * 60;
+    // How often a cook with nothing at its own station looks for a backed-up one
+    private static final long STEAL_CHECK_MILLIS = 50;
+
+    private final OrderManager orders;
+    private final int cooksPerStation;
+    private final double speed;
+    private final long slackMinutes;
+    private final StationQueue[] stations;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong stolen = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final List<Thread> cooks = new ArrayList<>();
+    private volatile boolean running = true;
+
+    // speed is kitchen minutes per real minute (60 makes a 25 minute dish take 25 seconds);
+    // slackMinutes is added to the longest line when promising a ready time
+    public KitchenScheduler(OrderManager orders, int cooksPerStation, double speed, long slackMinutes) {
+        if (cooksPerStation <= 0) {
+            throw new IllegalArgumentException("Cooks per station must be positive");
+        }
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Kitchen speed must be positive");
+        }
+        if (slackMinutes < 0) {
+            throw new IllegalArgumentException("Slack cannot be negative");
+        }
+        this.orders = orders;
+        this.cooksPerStation = cooksPerStation;
+        this.speed = speed;
+        this.slackMinutes = slackMinutes;
+        Station[] all = Station.values();
+        this.stations = new StationQueue[all.length];
+        for (Station station : all) {
+            stations[station.ordinal()] = new StationQueue(station);
+        }
+    }
+
+    // Shared by every ticket of one order; counts down to Ready
+    private static final class Progress {
+        final String orderId;
+        final AtomicInteger remaining;
+        final AtomicBoolean started = new AtomicBoolean();
+        Progress(String orderId, int tickets) {
+            this.orderId = orderId;
+            this.remaining = new AtomicInteger(tickets);
+        }
+    }
+
+    // One order line for one station; times are wall-clock milliseconds
+    public static final class Ticket {
+        private final Progress progress;
+        private final String itemId;
+        private final String itemName;
+        private final int quantity;
+        private final Station station;
+        private final int prepMinutes;
+        private final long prepMillis;
+        private final long promisedAt;
+        private final long latestStart;
+        private final long sequence;
+
+        Ticket(Progress progress, OrderLine line, Station station, int prepMinutes,
+               long prepMillis, long promisedAt, long sequence) {
+            this.progress = progress;
+            this.itemId = line.getItem().getId();
+            this.itemName = line.getItem().getName();
+            this.quantity = line.getQuantity();
+            this.station = station;
+            this.prepMinutes = prepMinutes;
+            this.prepMillis = prepMillis;
+            this.promisedAt = promisedAt;
+            this.latestStart = promisedAt - prepMillis;
+            this.sequence = sequence;
+        }
+
+        public String getOrderId() { return progress.orderId; }
+        public String getItemId() { return itemId; }
+        public String getItemName() { return itemName; }
+        public int getQuantity() { return quantity; }
+        public Station getStation() { return station; }
+        public int getPrepMinutes() { return prepMinutes; }
+        public long getPromisedAt() { return promisedAt; }
+        public long getLatestStart() { return latestStart; }
+    }
+
+    // Least slack first, then earliest promise, then arrival order
+    private static final Comparator<Ticket> URGENCY = Comparator
+        .comparingLong((Ticket t) -> t.latestStart)
+        .thenComparingLong(t -> t.promisedAt)
+        .thenComparingLong(t -> t.sequence);
+
+    private static final class StationQueue {
+        final Station station;
+        final ReentrantLock lock = new ReentrantLock();
+        final PriorityQueue<Ticket> queue = new PriorityQueue<>(URGENCY);
+        final Set<Ticket> cooking = Collections.newSetFromMap(new IdentityHashMap<>());
+        // One permit per ticket in queue, so idle home cooks park here instead of polling
+        final Semaphore tickets = new Semaphore(0);
+        // Home cooks waiting for work
+        final AtomicInteger idle = new AtomicInteger();
+        StationQueue(Station station) {
+            this.station = station;
+        }
+    }
+
+    // Point-in-time view of one station for the kitchen display
+    public static final class StationView {
+        private final Station station;
+        private final List<Ticket> cooking;
+        private final List<Ticket> queued;
+        StationView(Station station, List<Ticket> cooking, List<Ticket> queued) {
+            this.station = station;
+            this.cooking = cooking;
+            this.queued = queued;
+        }
+        public Station getStation() { return station; }
+        public List<Ticket> getCooking() { return cooking; }
+        public List<Ticket> getQueued() { return queued; }
+    }
+
+    public void start() {
+        for (StationQueue home : stations) {
+            for (int i = 1; i <= cooksPerStation; i++) {
+                Thread cook = new Thread(() -> cookLoop(home),
+                    "kitchen-" + home.station.name().toLowerCase() + "-" + i);
+                cook.setDaemon(true);
+                cooks.add(cook);
+                cook.start();
+            }
+        }
+    }
+
+    // Queues every line of the order; the promise is the longest line plus slack from the order time
+    public void submit(Order order) {
+        List<OrderLine> lines = order.getLines();
+        if (lines.isEmpty()) {
+            return;
+        }
+        long orderedAt = order.getOrderTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        int longest = 0;
+        int[] minutes = new int[lines.size()];
+        for (int i = 0; i < minutes.length; i++) {
+            minutes[i] = prepMinutes(lines.get(i));
+            longest = Math.max(longest, minutes[i]);
+        }
+        long promisedAt = orderedAt + kitchenMillis(longest + slackMinutes);
+        Progress progress = new Progress(order.getOrderId(), lines.size());
+        for (int i = 0; i < minutes.length; i++) {
+            OrderLine line = lines.get(i);
+            Station station = Station.forItem(line.getItem());
+            Ticket ticket = new Ticket(progress, line, station, minutes[i],
+                kitchenMillis(minutes[i]), promisedAt, sequence.incrementAndGet());
+            StationQueue target = stations[station.ordinal()];
+            target.lock.lock();
+            try {
+                target.queue.add(ticket);
+            } finally {
+                target.lock.unlock();
+            }
+            target.tickets.release();
+        }
+    }
+
+    // Further units of the same dish cook alongside the first, each adding a quarter of its
+    // time, up to MAX_PREP_MINUTES
+    static int prepMinutes(OrderLine line) {
+        MenuItem item = line.getItem();
+        int base;
+        if (item instanceof MainCourse) {
+            base = parseMinutes(((MainCourse) item).getCookingTime(), DEFAULT_MAIN_MINUTES);
+        } else if (item instanceof Dessert) {
+            base = DESSERT_MINUTES;
+        } else {
+            base = APPETIZER_MINUTES;
+        }
+        long minutes = base + (line.getQuantity() - 1L) * Math.max(1, base / 4);
+        return (int) Math.max(1, Math.min(minutes, MAX_PREP_MINUTES));
+    }
+
+    // Leading digits of values like "25 mins"
+    static int parseMinutes(String cookingTime, int fallback) {
+        if (cookingTime == null) return fallback;
+        int value = 0;
+        int i = 0;
+        String s = cookingTime.trim();
+        while (i < s.length() && Character.isDigit(s.charAt(i)) && value < 10_000) {
+            value = value * 10 + (s.charAt(i++) - '0');
+        }
+        return i == 0 || value == 0 ? fallback : value;
+    }
+
+    private long kitchenMillis(long minutes) {
+        return (long) (minutes * 60_000L / speed);
+    }
+
+    // A ticket that fails is logged and dropped, so one bad order cannot take a cook with it
+    private void cookLoop(StationQueue home) {
+        while (running) {
+            Ticket ticket;
+            home.idle.incrementAndGet();
+            try {
+                ticket = home.tickets.tryAcquire(STEAL_CHECK_MILLIS, TimeUnit.MILLISECONDS)
+                    ? poll(home) : steal(home);
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                home.idle.decrementAndGet();
+            }
+            if (ticket == null) {
+                continue;
+            }
+            try {
+                cook(ticket);
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                System.out.println("Ticket for " + ticket.progress.orderId + " failed: " + ex);
+            }
+        }
+    }
+
+    private void cook(Ticket ticket) throws InterruptedException {
+        // Nothing to cook for an order cancelled while its ticket waited
+        Order order = orders.getOrder(ticket.progress.orderId);
+        if (order == null || order.getOrderStatus() == OrderStatus.CANCELLED) {
+            skipped.incrementAndGet();
+            return;
+        }
+        StationQueue at = stations[ticket.station.ordinal()];
+        at.lock.lock();
+        try {
+            at.cooking.add(ticket);
+        } finally {
+            at.lock.unlock();
+        }
+        try {
+            if (ticket.progress.started.compareAndSet(false, true)) {
+                advance(ticket.progress.orderId, OrderStatus.PENDING, OrderStatus.PREPARING);
+            }
+            Thread.sleep(ticket.prepMillis);
+        } finally {
+            at.lock.lock();
+            try {
+                at.cooking.remove(ticket);
+            } finally {
+                at.lock.unlock();
+            }
+        }
+        completed.incrementAndGet();
+        if (ticket.progress.remaining.decrementAndGet() == 0) {
+            advance(ticket.progress.orderId, OrderStatus.PREPARING, OrderStatus.READY);
+        }
+    }
+
+    // The most urgent head among the other stations that are backed up, or null if none
+    // is. Taking a permit first keeps the station's permits equal to its queued tickets
+    private Ticket steal(StationQueue home) {
+        StationQueue victim = null;
+        Ticket best = null;
+        for (StationQueue other : stations) {
+            if (other == home) continue;
+            other.lock.lock();
+            try {
+                Ticket head = other.queue.peek();
+                if (head != null && other.queue.size() > other.idle.get()
+                        && (best == null || URGENCY.compare(head, best) < 0)) {
+                    best = head;
+                    victim = other;
+                }
+            } finally {
+                other.lock.unlock();
+            }
+        }
+        if (victim == null || !victim.tickets.tryAcquire()) {
+            return null;
+        }
+        stolen.incrementAndGet();
+        return poll(victim);
+    }
+
+    private static Ticket poll(StationQueue station) {
+        station.lock.lock();
+        try {
+            return station.queue.poll();
+        } finally {
+            station.lock.unlock();
+        }
+    }
+
+    // Only moves an order that is still where the kitchen expects it, so an order
+    // cancelled meanwhile stays cancelled. Goes through OrderManager so the change is
+    // journaled and observers hear about it
+    private void advance(String orderId, OrderStatus from, OrderStatus to) {
+        try {
+            orders.compareAndSetStatus(orderId, from, to);
+        } catch (UncheckedIOException ex) {
+            System.out.println(ex.getMessage() + ": " + ex.getCause());
+        }
+    }
+
+    public List<StationView> snapshot() {
+        List<StationView> views = new ArrayList<>(stations.length);
+        for (StationQueue station : stations) {
+            List<Ticket> cooking;
+            Ticket[] waiting;
+            station.lock.lock();
+            try {
+                cooking = new ArrayList<>(station.cooking);
+                waiting = station.queue.toArray(new Ticket[0]);
+            } finally {
+                station.lock.unlock();
+            }
+            Arrays.sort(waiting, URGENCY);
+            cooking.sort(URGENCY);
+            views.add(new StationView(station.station, cooking, Arrays.asList(waiting)));
+        }
+        return views;
+    }
+
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (StationQueue station : stations) {
+            station.lock.lock();
+            try {
+                depths.put(station.station.name().toLowerCase(), station.queue.size());
+            } finally {
+                station.lock.unlock();
+            }
+        }
+        return depths;
+    }
+
+    public long getStolenCount() { return stolen.get(); }
+    public long getCompletedCount() { return completed.get(); }
+    public long getSkippedCount() { return skipped.get(); }
+    public int getCooksPerStation() { return cooksPerStation; }
+
+    // Tickets still queued are abandoned; their orders stay in their current status
+    public void shutdown() {
+        running = false;
+        for (Thread cook : cooks) {
+            cook.interrupt();
+        }
+    }
+}
@@ -13,10 +13,10 @@ public class MainCourse extends MenuItem {
     }
     
     public String getCookingTime() { return cookingTime; }
-    public void setCookingTime(String cookingTime) { this.cookingTime = cookingTime; }
+    public void setCookingTime(String cookingTime) { checkMutable(); this.cookingTime = cookingTime; }
     
     public String getSpiceLevel() { return spiceLevel; }
-    public void setSpiceLevel(String spiceLevel) { this.spiceLevel = spiceLevel; }
+    public void setSpiceLevel(String spiceLevel) { checkMutable(); this.spiceLevel = spiceLevel; }
     
     // Polymorphism: Method Overriding
     @Override
@@ -25,11 +25,11 @@ public class MainCourse extends MenuItem {
     }
     
     @Override
-    public double calculatePrice(double discount) {
+    public long calculatePriceCents(double discount) {
         // Main courses have special discount logic
-        if (getPrice() > 20) {
+        if (getPriceCents() > 2000) {
             discount += 5; // Extra 5% discount for expensive items
         }
-        return super.calculatePrice(discount);
+        return super.calculatePriceCents(discount);
     }
 }
@@ -0,0 +1,168 @@
+package com.restaurant;
+
+import java.util.*;
+
+// Immutable, versioned snapshot of the menu. Each item gets a dense ordinal, and the
+// fields the order path needs (price, category, dietary flags) sit in primitive arrays
+// indexed by it. Changes go through a Builder that produces a new snapshot; the old one
+// stays valid for whoever still holds it, so readers never block or see a half-made menu.
+// Items inside a snapshot are private, frozen copies: their setters throw, and callers
+// who want a changed item take copy() of it and put that through a Builder.
+public final class MenuCatalog {
+    public static final int VEGETARIAN = 1;
+    public static final int CONTAINS_NUTS = 2;
+
+    private final long version;
+    private final MenuItem[] items;
+    private final long[] priceCents;
+    private final byte[] categoryCodes;
+    private final String[] categoryNames;
+    private final int[] flags;
+    // Open-addressing ID index: slot -> ordinal + 1 (0 means empty)
+    private final String[] indexKeys;
+    private final int[] indexOrdinals;
+    private final Map<String, Integer> byName;
+
+    private MenuCatalog(long version, List<MenuItem> source) {
+        this.version = version;
+        int n = source.size();
+        items = new MenuItem[n];
+        priceCents = new long[n];
+        categoryCodes = new byte[n];
+        flags = new int[n];
+        List<String> categories = new ArrayList<>();
+        Map<String, Integer> names = new HashMap<>();
+        int capacity = Integer.highestOneBit(Math.max(4, n * 2) - 1) << 1;
+        indexKeys = new String[capacity];
+        indexOrdinals = new int[capacity];
+        for (int i = 0; i < n; i++) {
+            MenuItem item = source.get(i);
+            items[i] = item;
+            priceCents[i] = item.getPriceCents();
+            int category = categories.indexOf(item.getCategory());
+            if (category < 0) {
+                category = categories.size();
+                if (category > Byte.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many categories");
+                }
+                categories.add(item.getCategory());
+            }
+            categoryCodes[i] = (byte) category;
+            flags[i] = flagsOf(item);
+            int slot = slot(item.getId());
+            while (indexKeys[slot] != null) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            indexKeys[slot] = item.getId();
+            indexOrdinals[slot] = i + 1;
+            names.putIfAbsent(item.getName().toLowerCase(), i);
+        }
+        categoryNames = categories.toArray(new String[0]);
+        byName = names;
+    }
+
+    private static int flagsOf(MenuItem item) {
+        int f = 0;
+        if (item instanceof Appetizer && ((Appetizer) item).isVegetarian()) f |= VEGETARIAN;
+        if (item instanceof Dessert && ((Dessert) item).isContainsNuts()) f |= CONTAINS_NUTS;
+        return f;
+    }
+
+    private int slot(String id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (indexKeys.length - 1);
+    }
+
+    public static MenuCatalog empty() {
+        return new MenuCatalog(0, Collections.emptyList());
+    }
+
+    public long getVersion() { return version; }
+    public int size() { return items.length; }
+
+    // Ordinal of the item with this ID, or -1
+    public int ordinalOf(String id) {
+        if (id == null) return -1;
+        int slot = slot(id);
+        String key;
+        while ((key = indexKeys[slot]) != null) {
+            if (key.equals(id)) return indexOrdinals[slot] - 1;
+            slot = (slot + 1) & (indexKeys.length - 1);
+        }
+        return -1;
+    }
+
+    // Ordinal by ID, falling back to a case-insensitive display name match
+    public int resolve(String idOrName) {
+        int ordinal = ordinalOf(idOrName);
+        if (ordinal >= 0 || idOrName == null) return ordinal;
+        Integer byDisplayName = byName.get(idOrName.toLowerCase());
+        return byDisplayName != null ? byDisplayName : -1;
+    }
+
+    public MenuItem item(int ordinal) { return items[ordinal]; }
+    public long priceCents(int ordinal) { return priceCents[ordinal]; }
+    public String category(int ordinal) { return categoryNames[categoryCodes[ordinal]]; }
+    public int categoryCode(int ordinal) { return categoryCodes[ordinal]; }
+    public int categoryCount() { return categoryNames.length; }
+    public String categoryName(int code) { return categoryNames[code]; }
+    public boolean hasFlag(int ordinal, int flag) { return (flags[ordinal] & flag) != 0; }
+
+    public MenuItem get(String id) {
+        int ordinal = ordinalOf(id);
+        return ordinal >= 0 ? items[ordinal] : null;
+    }
+
+    public List<MenuItem> items() {
+        return Collections.unmodifiableList(Arrays.asList(items));
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    // Collects changes against one snapshot; build() returns the next version
+    public static final class Builder {
+        private final long baseVersion;
+        private final LinkedHashMap<String, MenuItem> items = new LinkedHashMap<>();
+
+        private Builder(MenuCatalog base) {
+            baseVersion = base.version;
+            for (MenuItem item : base.items) {
+                items.put(item.getId(), item);
+            }
+        }
+
+        // Stores a private copy, so later changes to the caller's object have no effect
+        public Builder put(MenuItem item) {
+            if (item == null || item.getId() == null) {
+                throw new IllegalArgumentException("Menu item and its ID are required");
+            }
+            MenuItem copy = item.copy();
+            copy.freeze();
+            items.put(item.getId(), copy);
+            return this;
+        }
+
+        public Builder setPrice(String id, double price) {
+            MenuItem existing = items.get(id);
+            if (existing == null) {
+                throw new IllegalArgumentException("Item not found: " + id);
+            }
+            MenuItem updated = existing.copy();
+            updated.setPrice(price);
+            updated.freeze();
+            items.put(id, updated);
+            return this;
+        }
+
+        public Builder remove(String id) {
+            items.remove(id);
+            return this;
+        }
+
+        public MenuCatalog build() {
+            return new MenuCatalog(baseVersion + 1, new ArrayList<>(items.values()));
+        }
+    }
+}
@@ -1,68 +1,105 @@
 package com.restaurant;
 
 // Abstract class demonstrating Abstraction
-public abstract class MenuItem {
+public abstract class MenuItem implements Cloneable {
     // Encapsulation: Private fields with getters/setters
     private String id;
     private String name;
-    private double price;
+    private long priceCents; // fixed-point, see Money
     private String category;
     private String description;
+    private boolean frozen; // set on a menu snapshot's copy; see freeze
     
     // Constructor
     public MenuItem(String id, String name, double price, String category, String description) {
         this.id = id;
         this.name = name;
-        this.price = price;
+        this.priceCents = Money.ofDollars(price);
         this.category = category;
         this.description = description;
     }
     
     // Getters and Setters (Encapsulation)
     public String getId() { return id; }
-    public void setId(String id) { this.id = id; }
+    public void setId(String id) { checkMutable(); this.id = id; }
     
     public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
+    public void setName(String name) { checkMutable(); this.name = name; }
     
-    public double getPrice() { return price; }
+    public double getPrice() { return Money.toDollars(priceCents); }
     public void setPrice(double price) {
+        checkMutable();
         // Data Validation
         if (price < 0) {
             throw new IllegalArgumentException("Price cannot be negative");
         }
-        this.price = price;
+        this.priceCents = Money.ofDollars(price);
     }
     
+    public long getPriceCents() { return priceCents; }
+    
     public String getCategory() { return category; }
-    public void setCategory(String category) { this.category = category; }
+    public void setCategory(String category) { checkMutable(); this.category = category; }
     
     public String getDescription() { return description; }
-    public void setDescription(String description) { this.description = description; }
+    public void setDescription(String description) { checkMutable(); this.description = description; }
+    
+    // Shallow copy; every field is immutable, so this is a full independent copy. The
+    // copy can be changed even if this item is frozen
+    public MenuItem copy() {
+        try {
+            MenuItem copy = (MenuItem) super.clone();
+            copy.frozen = false;
+            return copy;
+        } catch (CloneNotSupportedException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+    
+    // Items in a MenuCatalog are shared by every reader of the snapshot and by the orders
+    // placed from it, so they are frozen there: setters throw IllegalStateException
+    void freeze() { frozen = true; }
+    public boolean isFrozen() { return frozen; }
+    
+    // Called first by every setter, including those of subclasses
+    protected final void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("Menu item " + id + " belongs to a menu snapshot; change a copy");
+        }
+    }
     
     // Abstract method (Abstraction)
     public abstract String getItemType();
     
     // Polymorphism: Method Overloading
     public double calculatePrice() {
-        return this.price;
+        return Money.toDollars(priceCents);
     }
     
     public double calculatePrice(double discount) {
+        return Money.toDollars(calculatePriceCents(discount));
+    }
+    
+    public double calculatePrice(double discount, double tax) {
+        return Money.toDollars(calculatePriceCents(discount, tax));
+    }
+    
+    // Cent-exact versions of the overloads above; percentages are rounded to basis points
+    public long calculatePriceCents(double discount) {
         // Data Validation
         if (discount < 0 || discount > 100) {
             throw new IllegalArgumentException("Discount must be between 0 and 100");
         }
-        return this.price - (this.price * discount / 100);
+        return priceCents - Money.percentOf(priceCents, Money.basisPoints(discount));
     }
     
-    public double calculatePrice(double discount, double tax) {
-        double discountedPrice = calculatePrice(discount);
-        return discountedPrice + (discountedPrice * tax / 100);
+    public long calculatePriceCents(double discount, double tax) {
+        long discountedPrice = calculatePriceCents(discount);
+        return discountedPrice + Money.percentOf(discountedPrice, Money.basisPoints(tax));
     }
     
     @Override
     public String toString() {
-        return String.format("%s: %s - $%.2f (%s)", getItemType(), name, price, category);
+        return String.format("%s: %s - %s (%s)", getItemType(), name, Money.format(priceCents), category);
     }
 }
@@ -0,0 +1,183 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import com.sun.net.httpserver.*;
+
+// Request metrics for every context plus process gauges, rendered in the Prometheus
+// text format. Handlers are instrumented with a Filter, so they need no changes.
+public class Metrics {
+    // Per-handler counters; status codes are kept by class (1xx..5xx)
+    public static class HandlerStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLongArray statusClasses = new AtomicLongArray(6);
+        final LongAdder bytes = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        void record(int status, long nanos, long responseBytes) {
+            latency.record(nanos);
+            statusClasses.incrementAndGet(status >= 100 && status < 600 ? status / 100 : 5);
+            if (responseBytes > 0) bytes.add(responseBytes);
+        }
+
+        public LatencyHistogram getLatency() { return latency; }
+    }
+
+    private static final class Gauge {
+        final String help;
+        final LongSupplier value;
+        Gauge(String help, LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    private static final class GaugeFamily {
+        final String help;
+        final String label;
+        final Supplier<Map<String, ? extends Number>> values;
+        GaugeFamily(String help, String label, Supplier<Map<String, ? extends Number>> values) {
+            this.help = help;
+            this.label = label;
+            this.values = values;
+        }
+    }
+
+    private final Map<String, HandlerStats> handlers = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, GaugeFamily> gaugeFamilies = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public HandlerStats handler(String name) {
+        return handlers.computeIfAbsent(name, n -> new HandlerStats());
+    }
+
+    public void gauge(String name, String help, LongSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    // A gauge with one series per label value, e.g. lag per observer
+    public void gaugeFamily(String name, String label, String help,
+                            Supplier<Map<String, ? extends Number>> values) {
+        gaugeFamilies.put(name, new GaugeFamily(help, label, values));
+    }
+
+    // Filter that times the rest of the chain and records status and response size
+    public Filter filter(String handlerName) {
+        HandlerStats stats = handler(handlerName);
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    chain.doFilter(exchange);
+                } catch (IOException | RuntimeException ex) {
+                    stats.errors.increment();
+                    stats.record(500, System.nanoTime() - start, 0);
+                    throw ex;
+                }
+                stats.record(exchange.getResponseCode(), System.nanoTime() - start,
+                    contentLength(exchange.getResponseHeaders().getFirst("Content-length")));
+            }
+
+            @Override
+            public String description() {
+                return "metrics for " + handlerName;
+            }
+        };
+    }
+
+    private static long contentLength(String header) {
+        if (header == null) return 0;
+        long n = 0;
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (c < '0' || c > '9') return 0;
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    public void writePrometheus(ResponseBuffer out) {
+        List<String> names = new ArrayList<>(handlers.keySet());
+        Collections.sort(names);
+
+        out.append("# HELP http_requests_total Requests handled, by handler and status class\n");
+        out.append("# TYPE http_requests_total counter\n");
+        for (String name : names) {
+            AtomicLongArray classes = handlers.get(name).statusClasses;
+            for (int c = 1; c < 6; c++) {
+                long n = classes.get(c);
+                if (n == 0) continue;
+                out.append("http_requests_total{handler=\"").append(name).append("\",code=\"")
+                   .append(c).append("xx\"} ").append(n).append('\n');
+            }
+        }
+
+        out.append("# HELP http_handler_errors_total Requests that ended in an exception\n");
+        out.append("# TYPE http_handler_errors_total counter\n");
+        for (String name : names) {
+            out.append("http_handler_errors_total{handler=\"").append(name).append("\"} ")
+               .append(handlers.get(name).errors.sum()).append('\n');
+        }
+
+        out.append("# HELP http_response_bytes_total Response body bytes with a known length\n");
+        out.append("# TYPE http_response_bytes_total counter\n");
+        for (String name : names) {
+            out.append("http_response_bytes_total{handler=\"").append(name).append("\"} ")
+               .append(handlers.get(name).bytes.sum()).append('\n');
+        }
+
+        out.append("# HELP http_request_duration_seconds Handler latency\n");
+        out.append("# TYPE http_request_duration_seconds summary\n");
+        for (String name : names) {
+            LatencyHistogram h = handlers.get(name).latency;
+            writeQuantile(out, name, "0.5", h.percentile(0.5));
+            writeQuantile(out, name, "0.99", h.percentile(0.99));
+            writeQuantile(out, name, "0.999", h.percentile(0.999));
+            out.append("http_request_duration_seconds_sum{handler=\"").append(name).append("\"} ");
+            writeSeconds(out, h.getSum());
+            out.append('\n');
+            out.append("http_request_duration_seconds_count{handler=\"").append(name).append("\"} ")
+               .append(h.getCount()).append('\n');
+        }
+
+        synchronized (gauges) {
+            for (Map.Entry<String, Gauge> g : gauges.entrySet()) {
+                out.append("# HELP ").append(g.getKey()).append(' ').append(g.getValue().help).append('\n');
+                out.append("# TYPE ").append(g.getKey()).append(" gauge\n");
+                out.append(g.getKey()).append(' ').append(g.getValue().value.getAsLong()).append('\n');
+            }
+        }
+        synchronized (gaugeFamilies) {
+            for (Map.Entry<String, GaugeFamily> g : gaugeFamilies.entrySet()) {
+                GaugeFamily family = g.getValue();
+                out.append("# HELP ").append(g.getKey()).append(' ').append(family.help).append('\n');
+                out.append("# TYPE ").append(g.getKey()).append(" gauge\n");
+                for (Map.Entry<String, ? extends Number> v : family.values.get().entrySet()) {
+                    out.append(g.getKey()).append('{').append(family.label).append("=\"")
+                       .append(v.getKey()).append("\"} ").append(v.getValue().longValue()).append('\n');
+                }
+            }
+        }
+    }
+
+    private static void writeQuantile(ResponseBuffer out, String name, String quantile, long nanos) {
+        out.append("http_request_duration_seconds{handler=\"").append(name)
+           .append("\",quantile=\"").append(quantile).append("\"} ");
+        writeSeconds(out, nanos);
+        out.append('\n');
+    }
+
+    // Nanoseconds as seconds with nine decimals
+    private static void writeSeconds(ResponseBuffer out, long nanos) {
+        out.append(nanos / 1_000_000_000L).append('.');
+        String fraction = Long.toString(nanos % 1_000_000_000L);
+        for (int i = fraction.length(); i < 9; i++) out.append('0');
+        out.append(fraction);
+    }
+}
@@ -0,0 +1,37 @@
+package com.restaurant;
+
+// Fixed-point money helpers. Amounts are plain long cents and percentages are long basis
+// points (1% = 100), so totals are exact, never drift, and need no objects on the hot path
+public final class Money {
+    private Money() { }
+
+    public static long ofDollars(double dollars) {
+        return Math.round(dollars * 100);
+    }
+
+    public static double toDollars(long cents) {
+        return cents / 100.0;
+    }
+
+    public static long basisPoints(double percent) {
+        return Math.round(percent * 100);
+    }
+
+    // cents * basisPoints / 10000, rounded half away from zero
+    public static long percentOf(long cents, long basisPoints) {
+        long scaled = cents * basisPoints;
+        return scaled >= 0 ? (scaled + 5_000) / 10_000 : -((-scaled + 5_000) / 10_000);
+    }
+
+    public static String format(long cents) {
+        StringBuilder sb = new StringBuilder(12);
+        if (cents < 0) {
+            sb.append('-');
+            cents = -cents;
+        }
+        sb.append('$').append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) sb.append('0');
+        return sb.append(fraction).toString();
+    }
+}
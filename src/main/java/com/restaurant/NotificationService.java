@@ -0,0 +1,22 @@
+package com.restaurant;
+
+import java.util.List;
+
+// Concrete Observer
+class NotificationService implements OrderObserver {
+    @Override
+    public void update(String orderId, String status) {
+        System.out.println("Notification: Order " + orderId + " status changed to " + status);
+    }
+    
+    // One console write per batch instead of one per event
+    @Override
+    public void update(List<OrderEvent> events) {
+        StringBuilder sb = new StringBuilder();
+        for (OrderEvent event : events) {
+            sb.append("Notification: Order ").append(event.getOrderId())
+              .append(" status changed to ").append(event.getStatus()).append('\n');
+        }
+        System.out.print(sb);
+    }
+}
@@ -1,24 +1,70 @@
 package com.restaurant;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
 import java.time.LocalDateTime;
 
-// Composition and Aggregation: Order HAS-A User and HAS-A List<MenuItem>
+// Composition and Aggregation: Order HAS-A User and HAS-A list of OrderLines
 public class Order {
+    // Units of one menu item an order may hold; keeps counts, totals and getItems() bounded.
+    // Set with -Dorder.maxQuantity; the default leaves room for catering-sized orders
+    public static final int MAX_QUANTITY = maxQuantity();
+
     private String orderId;
     private User customer; // Aggregation: Order has-a User
-    private List<MenuItem> items; // Composition: Order has-a List of MenuItems
+    private Map<String, OrderLine> lines; // Composition: one line per menu item ID, in order added
+    private int itemCount;
     private LocalDateTime orderTime;
-    private String status;
-    private double totalAmount;
+    private volatile OrderStatus status; // changed only by compare-and-set, see transitionTo
+    private volatile String paymentStatus = "Unpaid"; // Unpaid, Pending, Authorized, Declined, Failed
+    private final long taxBasisPoints; // tax rate captured when the order is opened
+    private long subtotalCents;
+    private long taxCents;
+    // Links in the OrderStateQueues list of the order's status; guarded by that list's lock
+    Order prevInStatus;
+    Order nextInStatus;
+    OrderStatus queuedIn;
+    
+    private static int maxQuantity() {
+        int max = Integer.getInteger("order.maxQuantity", 1000);
+        if (max <= 0) {
+            throw new IllegalArgumentException("order.maxQuantity must be positive: " + max);
+        }
+        return max;
+    }
+
+    private static final VarHandle STATUS;
+    static {
+        try {
+            STATUS = MethodHandles.lookup().findVarHandle(Order.class, "status", OrderStatus.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
     
     public Order(String orderId, User customer) {
+        this(orderId, customer, LocalDateTime.now());
+    }
+    
+    // Used when rebuilding orders from the journal
+    Order(String orderId, User customer, LocalDateTime orderTime) {
+        this(orderId, customer, orderTime, RestaurantConfig.getInstance());
+    }
+    
+    // Everything the order needs from the configuration comes from this one snapshot
+    Order(String orderId, User customer, LocalDateTime orderTime, RestaurantConfig config) {
+        this(orderId, customer, orderTime, config.getTaxBasisPoints());
+    }
+    
+    // Used when restoring an archived order at the tax rate it was placed with
+    Order(String orderId, User customer, LocalDateTime orderTime, long taxBasisPoints) {
         this.orderId = orderId;
         this.customer = customer;
-        this.items = new ArrayList<>(); // Composition
-        this.orderTime = LocalDateTime.now();
-        this.status = "Pending";
-        this.totalAmount = 0.0;
+        this.lines = new LinkedHashMap<>(); // Composition
+        this.orderTime = orderTime;
+        this.status = OrderStatus.PENDING;
+        this.taxBasisPoints = taxBasisPoints;
     }
     
     // Getters and Setters
@@ -28,68 +74,134 @@ public class Order {
     public User getCustomer() { return customer; }
     public void setCustomer(User customer) { this.customer = customer; }
     
-    public List<MenuItem> getItems() { return new ArrayList<>(items); } // Return copy
+    // One entry per unit, as before line items existed
+    public List<MenuItem> getItems() {
+        List<MenuItem> items = new ArrayList<>(itemCount);
+        for (OrderLine line : lines.values()) {
+            for (int i = 0; i < line.getQuantity(); i++) {
+                items.add(line.getItem());
+            }
+        }
+        return items;
+    }
+    
+    public List<OrderLine> getLines() { return new ArrayList<>(lines.values()); } // Return copy
     
     public LocalDateTime getOrderTime() { return orderTime; }
     
-    public String getStatus() { return status; }
+    public String getStatus() { return status.getLabel(); }
+    public OrderStatus getOrderStatus() { return status; }
+    
+    // Moves to the named status if that is a legal step from the current one (see
+    // OrderStatus); asking for the status the order already has changes nothing
     public void setStatus(String status) {
-        String[] validStatuses = {"Pending", "Preparing", "Ready", "Delivered", "Cancelled"};
-        boolean isValid = false;
-        for (String s : validStatuses) {
-            if (s.equalsIgnoreCase(status)) {
-                isValid = true;
-                break;
+        transitionTo(OrderStatus.parse(status));
+    }
+    
+    // Returns the status the order left, or null if it was already in next. Throws
+    // IllegalStateException if next cannot follow the current status; concurrent callers
+    // are serialized by compare-and-set, so exactly one of them makes each move
+    public OrderStatus transitionTo(OrderStatus next) {
+        while (true) {
+            OrderStatus current = status;
+            if (current == next) return null;
+            if (!current.canMoveTo(next)) {
+                throw new IllegalStateException("Order " + orderId + " cannot go from "
+                    + current.getLabel() + " to " + next.getLabel());
             }
+            if (STATUS.compareAndSet(this, current, next)) return current;
         }
-        if (!isValid) {
-            throw new IllegalArgumentException("Invalid status: " + status);
+    }
+    
+    // Moves from expected to next only if the order is still in expected
+    public boolean compareAndSetStatus(OrderStatus expected, OrderStatus next) {
+        if (!expected.canMoveTo(next)) {
+            throw new IllegalStateException("Cannot go from " + expected.getLabel() + " to " + next.getLabel());
         }
+        return STATUS.compareAndSet(this, expected, next);
+    }
+    
+    // Sets the status without checking the transition; for rebuilding an order from the
+    // journal (whose older records predate the state machine) or the archive
+    void restoreStatus(OrderStatus status) {
         this.status = status;
     }
     
-    public double getTotalAmount() { return totalAmount; }
+    public String getPaymentStatus() { return paymentStatus; }
+    public void setPaymentStatus(String paymentStatus) { this.paymentStatus = paymentStatus; }
+    
+    public double getTotalAmount() { return Money.toDollars(getTotalCents()); }
+    public long getTotalCents() { return subtotalCents + taxCents; }
+    public long getSubtotalCents() { return subtotalCents; }
+    public long getTaxCents() { return taxCents; }
+    long getTaxBasisPoints() { return taxBasisPoints; }
     
     // Method Overloading
     public void addItem(MenuItem item) {
+        addItem(item, 1);
+    }
+    
+    public void addItem(MenuItem item, int quantity) {
         if (item == null) {
             throw new IllegalArgumentException("Cannot add null item");
         }
-        items.add(item);
-        calculateTotal();
+        addItem(item, quantity, item.getPriceCents());
     }
     
-    public void addItem(MenuItem item, int quantity) {
+    // O(1): merges into the item's line and adjusts the running subtotal. The unit price
+    // is fixed when the line is first added, whatever happens to the menu afterwards
+    void addItem(MenuItem item, int quantity, long unitPriceCents) {
+        if (item == null) {
+            throw new IllegalArgumentException("Cannot add null item");
+        }
         if (quantity <= 0) {
             throw new IllegalArgumentException("Quantity must be positive");
         }
-        for (int i = 0; i < quantity; i++) {
-            addItem(item);
+        OrderLine line = lines.get(item.getId());
+        if (quantity > MAX_QUANTITY - (line != null ? line.getQuantity() : 0)) {
+            throw new IllegalArgumentException("At most " + MAX_QUANTITY + " of one item per order");
+        }
+        if (line == null) {
+            line = new OrderLine(item, unitPriceCents, quantity);
+        } else {
+            line = line.withQuantity(line.getQuantity() + quantity);
         }
+        lines.put(item.getId(), line);
+        itemCount += quantity;
+        subtotalCents += line.getUnitPriceCents() * quantity;
+        calculateTotal();
     }
     
+    // Removes one unit of the item, if present
     public void removeItem(MenuItem item) {
-        items.remove(item);
+        if (item == null) return;
+        OrderLine line = lines.get(item.getId());
+        if (line == null) return;
+        if (line.getQuantity() == 1) {
+            lines.remove(item.getId());
+        } else {
+            lines.put(item.getId(), line.withQuantity(line.getQuantity() - 1));
+        }
+        itemCount--;
+        subtotalCents -= line.getUnitPriceCents();
         calculateTotal();
     }
     
+    // O(1): tax is taken once on the running subtotal, so it never accumulates per-line rounding
     private void calculateTotal() {
-        totalAmount = 0.0;
-        for (MenuItem item : items) {
-            totalAmount += item.getPrice();
-        }
         // Apply tax
-        double tax = RestaurantConfig.getInstance().getTaxRate();
-        totalAmount += (totalAmount * tax / 100);
+        taxCents = Money.percentOf(subtotalCents, taxBasisPoints);
     }
     
+    public double getSubtotal() { return Money.toDollars(subtotalCents); }
+    
     public int getItemCount() {
-        return items.size();
+        return itemCount;
     }
     
     @Override
     public String toString() {
-        return String.format("Order[%s] - Customer: %s, Items: %d, Total: $%.2f, Status: %s",
-                           orderId, customer.getName(), items.size(), totalAmount, status);
+        return String.format("Order[%s] - Customer: %s, Items: %d, Total: %s, Status: %s",
+                           orderId, customer.getName(), itemCount, Money.format(getTotalCents()), status.getLabel());
     }
 }
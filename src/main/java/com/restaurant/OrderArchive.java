@@ -0,0 +1,317 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Compact storage for finished orders. Each order is one variable-length record,
+// appended to large segments outside the Java heap (direct buffers, or files mapped
+// into memory when a directory is given, so the OS can page cold history out):
+//   [int length][long order time, epoch millis][byte status][byte payment status]
+//   [short line count][int tax basis points]
+//   [order ID][user ID][name][email][phone]     each as [short length][UTF-8 bytes]
+//   lines of [int item ordinal][int quantity][long unit price cents]
+// Item ordinals refer to a small on-heap table of the menu items seen so far. Totals
+// are not stored: they are recomputed exactly from the unit prices and tax rate.
+// On the heap, an order costs one slot in an open-addressing table of primitive longs
+// (the ID's hash and the record's position) that is kept at most three quarters full,
+// so 22-43 bytes. get returns a new, detached Order each time; changing it changes
+// nothing here. The segments are a cache of the journal, not a second log: mapped
+// files are recreated on every start, and are unmapped when the archive is collected
+public class OrderArchive {
+    private static final String[] PAYMENT_STATUSES = {"Unpaid", "Pending", "Authorized", "Declined", "Failed"};
+    private static final int FIXED_SIZE = 4 + 8 + 1 + 1 + 2 + 4;
+    private static final int LINE_SIZE = 4 + 4 + 8;
+
+    private final int segmentSize;
+    private final Path dir;   // null for direct buffers
+    private final ZoneId zone;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock. Slot i is free when hashes[i] == 0
+    private long[] hashes = new long[1024];
+    private long[] positions = new long[1024];
+    private int size;
+    private int writeOffset;   // in the last segment
+    private long bytesUsed;
+    private final List<MenuItem> items = new ArrayList<>();
+    private final Map<String, Integer> itemOrdinals = new HashMap<>();
+
+    public OrderArchive(int segmentSize, Path dir, ZoneId zone) throws IOException {
+        if (segmentSize < 64 * 1024) {
+            throw new IllegalArgumentException("Segment size must be at least 64 KB");
+        }
+        this.segmentSize = segmentSize;
+        this.dir = dir;
+        this.zone = zone;
+        if (dir != null) {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "segment-*.bin")) {
+                for (Path file : old) {
+                    Files.delete(file);
+                }
+            }
+        }
+        segments.add(newSegment(0));
+    }
+
+    private ByteBuffer newSegment(int index) throws IOException {
+        if (dir == null) {
+            return ByteBuffer.allocateDirect(segmentSize);
+        }
+        Path file = dir.resolve(String.format("segment-%05d.bin", index));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    // FNV-1a over the ID's chars, never 0 (0 marks a free slot)
+    private static long hash(String orderId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < orderId.length(); i++) {
+            h = (h ^ orderId.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 29;
+        return h != 0 ? h : 1;
+    }
+
+    // Adds a copy of the order; returns false if an order with that ID is already here
+    public boolean put(Order order) throws IOException {
+        String orderId = order.getOrderId();
+        User customer = order.getCustomer();
+        byte[][] strings = {
+            utf8(orderId), utf8(customer.getUserId()), utf8(customer.getName()),
+            utf8(customer.getEmail()), utf8(customer.getPhone())
+        };
+        List<OrderLine> lines = order.getLines();
+        int length = FIXED_SIZE + LINE_SIZE * lines.size();
+        for (byte[] s : strings) {
+            length += 2 + s.length;
+        }
+        if (length > segmentSize || lines.size() > 0xFFFF) {
+            throw new IllegalArgumentException("Order " + orderId + " is too large to archive");
+        }
+        long h = hash(orderId);
+        lock.writeLock().lock();
+        try {
+            if (find(h, strings[0]) >= 0) return false;
+            if (writeOffset + length > segmentSize) {
+                segments.add(newSegment(segments.size()));
+                writeOffset = 0;
+            }
+            int segment = segments.size() - 1;
+            ByteBuffer buf = segments.get(segment);
+            int at = writeOffset;
+            buf.putInt(at, length);
+            buf.putLong(at + 4, OrderIndex.timeOf(order.getOrderTime()));
+            buf.put(at + 12, (byte) order.getOrderStatus().ordinal());
+            buf.put(at + 13, code(PAYMENT_STATUSES, order.getPaymentStatus()));
+            buf.putShort(at + 14, (short) lines.size());
+            buf.putInt(at + 16, (int) order.getTaxBasisPoints());
+            int p = at + FIXED_SIZE;
+            for (byte[] s : strings) {
+                buf.putShort(p, (short) s.length);
+                buf.put(p + 2, s);
+                p += 2 + s.length;
+            }
+            for (OrderLine line : lines) {
+                buf.putInt(p, ordinalOf(line.getItem()));
+                buf.putInt(p + 4, line.getQuantity());
+                buf.putLong(p + 8, line.getUnitPriceCents());
+                p += LINE_SIZE;
+            }
+            writeOffset += length;
+            bytesUsed += length;
+            insert(h, (long) segment << 32 | at);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Order get(String orderId) {
+        if (orderId == null) return null;
+        byte[] id = utf8(orderId);
+        lock.readLock().lock();
+        try {
+            int slot = find(hash(orderId), id);
+            return slot < 0 ? null : read(positions[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String orderId) {
+        if (orderId == null) return false;
+        lock.readLock().lock();
+        try {
+            return find(hash(orderId), utf8(orderId)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Forgets the order; its record's space is not reused
+    public boolean remove(String orderId) {
+        if (orderId == null) return false;
+        lock.writeLock().lock();
+        try {
+            int slot = find(hash(orderId), utf8(orderId));
+            if (slot < 0) return false;
+            delete(slot);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Record bytes written, including those of removed orders
+    public long getBytesUsed() {
+        lock.readLock().lock();
+        try {
+            return bytesUsed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Heap held by the ID table
+    public long getTableBytes() {
+        lock.readLock().lock();
+        try {
+            return 16L * hashes.length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Linear probing; two IDs with the same hash are told apart by the ID in the record
+    private int find(long h, byte[] id) {
+        int mask = hashes.length - 1;
+        for (int i = (int) h & mask; hashes[i] != 0; i = (i + 1) & mask) {
+            if (hashes[i] == h && idMatches(positions[i], id)) return i;
+        }
+        return -1;
+    }
+
+    private boolean idMatches(long position, byte[] id) {
+        ByteBuffer buf = segments.get((int) (position >>> 32));
+        int p = (int) position + FIXED_SIZE;
+        if (buf.getShort(p) != id.length) return false;
+        for (int i = 0; i < id.length; i++) {
+            if (buf.get(p + 2 + i) != id[i]) return false;
+        }
+        return true;
+    }
+
+    private void insert(long h, long position) {
+        if (4 * (size + 1) > 3 * hashes.length) {
+            long[] oldHashes = hashes;
+            long[] oldPositions = positions;
+            hashes = new long[oldHashes.length * 2];
+            positions = new long[oldHashes.length * 2];
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldHashes[i] != 0) place(oldHashes[i], oldPositions[i]);
+            }
+        }
+        place(h, position);
+        size++;
+    }
+
+    private void place(long h, long position) {
+        int mask = hashes.length - 1;
+        int i = (int) h & mask;
+        while (hashes[i] != 0) i = (i + 1) & mask;
+        hashes[i] = h;
+        positions[i] = position;
+    }
+
+    // Backward-shift deletion keeps every probe run unbroken without tombstones
+    private void delete(int slot) {
+        int mask = hashes.length - 1;
+        int gap = slot;
+        for (int i = (slot + 1) & mask; hashes[i] != 0; i = (i + 1) & mask) {
+            int home = (int) hashes[i] & mask;
+            // Move the entry back if the gap lies on its probe path from home to i
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                hashes[gap] = hashes[i];
+                positions[gap] = positions[i];
+                gap = i;
+            }
+        }
+        hashes[gap] = 0;
+        positions[gap] = 0;
+        size--;
+    }
+
+    private Order read(long position) {
+        ByteBuffer buf = segments.get((int) (position >>> 32));
+        int at = (int) position;
+        long time = buf.getLong(at + 4);
+        OrderStatus status = OrderStatus.of(buf.get(at + 12));
+        String paymentStatus = PAYMENT_STATUSES[buf.get(at + 13)];
+        int lineCount = buf.getShort(at + 14) & 0xFFFF;
+        long taxBasisPoints = buf.getInt(at + 16);
+        int p = at + FIXED_SIZE;
+        String[] strings = new String[5];
+        for (int i = 0; i < strings.length; i++) {
+            int n = buf.getShort(p) & 0xFFFF;
+            byte[] bytes = new byte[n];
+            buf.get(p + 2, bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            p += 2 + n;
+        }
+        User customer = new User(strings[1], strings[2], strings[3], strings[4]);
+        Order order = new Order(strings[0], customer,
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(time), zone), taxBasisPoints);
+        for (int i = 0; i < lineCount; i++) {
+            order.addItem(items.get(buf.getInt(p)), buf.getInt(p + 4), buf.getLong(p + 8));
+            p += LINE_SIZE;
+        }
+        order.restoreStatus(status);
+        order.setPaymentStatus(paymentStatus);
+        return order;
+    }
+
+    private int ordinalOf(MenuItem item) {
+        Integer ordinal = itemOrdinals.get(item.getId());
+        if (ordinal != null) return ordinal;
+        items.add(item.copy());
+        itemOrdinals.put(item.getId(), items.size() - 1);
+        return items.size() - 1;
+    }
+
+    private static byte code(String[] names, String value) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(value)) return (byte) i;
+        }
+        throw new IllegalArgumentException("Cannot archive status " + value);
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Field too long to archive");
+        }
+        return bytes;
+    }
+}
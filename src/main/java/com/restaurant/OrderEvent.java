@@ -0,0 +1,23 @@
+package com.restaurant;
+
+// One order status change as delivered to observers
+public final class OrderEvent {
+    private final String orderId;
+    private final String status;
+    private final long timestamp;
+
+    public OrderEvent(String orderId, String status, long timestamp) {
+        this.orderId = orderId;
+        this.status = status;
+        this.timestamp = timestamp;
+    }
+
+    public String getOrderId() { return orderId; }
+    public String getStatus() { return status; }
+    public long getTimestamp() { return timestamp; }
+
+    @Override
+    public String toString() {
+        return "OrderEvent[" + orderId + " -> " + status + "]";
+    }
+}
@@ -0,0 +1,148 @@
+package com.restaurant;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Delivers order events to observers off the request thread. Each observer gets its own
+// bounded ring buffer and consumer thread, and receives whatever has queued up since its
+// last call as one batch, so a slow observer only delays itself. Backpressure is the
+// bus's default unless the observer subscribed with its own
+public class OrderEventBus {
+    // What publish does when an observer's buffer is full
+    public enum Backpressure {
+        BLOCK,  // wait for space; intake slows down to the slowest observer
+        DROP    // discard the event for that observer and count it
+    }
+
+    private final int capacity;
+    private final int maxBatch;
+    private final Backpressure backpressure;
+    private final Map<OrderObserver, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+    public OrderEventBus(int capacity, int maxBatch, Backpressure backpressure) {
+        if (capacity <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive");
+        }
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        this.backpressure = Objects.requireNonNull(backpressure);
+    }
+
+    private class Subscriber implements Runnable {
+        final OrderObserver observer;
+        final Backpressure backpressure;
+        final ArrayBlockingQueue<OrderEvent> buffer = new ArrayBlockingQueue<>(capacity);
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong delivered = new AtomicLong();
+        final Thread thread;
+        volatile boolean running = true;
+
+        Subscriber(OrderObserver observer, Backpressure backpressure) {
+            this.observer = observer;
+            this.backpressure = backpressure;
+            this.thread = new Thread(this, "order-events-" + observer.getClass().getSimpleName());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<OrderEvent> batch = new ArrayList<>(maxBatch);
+            while (running || !buffer.isEmpty()) {
+                try {
+                    OrderEvent first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                buffer.drainTo(batch, maxBatch - 1);
+                try {
+                    observer.update(Collections.unmodifiableList(batch));
+                } catch (RuntimeException ex) {
+                    System.out.println("Observer " + observer.getClass().getSimpleName()
+                        + " failed: " + ex);
+                }
+                delivered.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+
+        void offer(OrderEvent event) {
+            if (backpressure == Backpressure.BLOCK) {
+                try {
+                    buffer.put(event);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+            } else if (!buffer.offer(event)) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    public void subscribe(OrderObserver observer) {
+        subscribe(observer, backpressure);
+    }
+
+    // BLOCK for an observer that must see every event (e.g. running totals); it then
+    // slows every publisher down to its pace when it falls a full buffer behind
+    public void subscribe(OrderObserver observer, Backpressure backpressure) {
+        Subscriber subscriber = new Subscriber(observer, Objects.requireNonNull(backpressure));
+        if (subscribers.putIfAbsent(observer, subscriber) == null) {
+            subscriber.thread.start();
+        }
+    }
+
+    public void unsubscribe(OrderObserver observer) {
+        Subscriber subscriber = subscribers.remove(observer);
+        if (subscriber != null) {
+            subscriber.running = false;
+        }
+    }
+
+    public void publish(String orderId, String status) {
+        OrderEvent event = new OrderEvent(orderId, status, System.currentTimeMillis());
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.offer(event);
+        }
+    }
+
+    // Events queued but not yet handed to each observer
+    public Map<String, Integer> getLag() {
+        Map<String, Integer> lag = new LinkedHashMap<>();
+        for (Subscriber s : subscribers.values()) {
+            lag.merge(s.observer.getClass().getSimpleName(), s.buffer.size(), Integer::sum);
+        }
+        return lag;
+    }
+
+    public long getDroppedCount() {
+        long total = 0;
+        for (Subscriber s : subscribers.values()) total += s.dropped.get();
+        return total;
+    }
+
+    // Events one observer has missed; 0 if it is not subscribed
+    public long getDroppedCount(OrderObserver observer) {
+        Subscriber s = subscribers.get(observer);
+        return s != null ? s.dropped.get() : 0;
+    }
+
+    // Stops accepting work and waits for observers to drain what is already queued
+    public void shutdown(long timeoutMillis) {
+        List<Subscriber> all = new ArrayList<>(subscribers.values());
+        subscribers.clear();
+        for (Subscriber s : all) s.running = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Subscriber s : all) {
+            try {
+                s.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.restaurant;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free order ID source: a single atomic counter, optionally prefixed with a node ID
+// so several backend processes can mint IDs without coordinating
+public class OrderIdGenerator {
+    private final String prefix;
+    private final AtomicLong sequence;
+
+    public OrderIdGenerator() {
+        this(null, 1);
+    }
+
+    public OrderIdGenerator(String nodeId, long start) {
+        if (nodeId != null && !nodeId.matches("[A-Za-z0-9]+")) {
+            throw new IllegalArgumentException("Node ID must be alphanumeric: " + nodeId);
+        }
+        this.prefix = nodeId == null ? "ORD" : "ORD" + nodeId + "-";
+        this.sequence = new AtomicLong(start);
+    }
+
+    public long nextSequence() {
+        return sequence.getAndIncrement();
+    }
+
+    public String format(long sequenceNumber) {
+        return prefix + sequenceNumber;
+    }
+
+    public String nextId() {
+        return format(nextSequence());
+    }
+
+    // Moves the counter past an ID minted earlier (e.g. one recovered from the journal)
+    public void observe(String orderId) {
+        if (orderId == null || !orderId.startsWith(prefix)) return;
+        try {
+            long used = Long.parseLong(orderId.substring(prefix.length()));
+            sequence.accumulateAndGet(used + 1, Math::max);
+        } catch (NumberFormatException ex) {
+            // Not one of ours
+        }
+    }
+
+    public String getPrefix() { return prefix; }
+
+    // The node that minted an ID, e.g. "B" for ORDB-42; null for IDs without one
+    public static String nodeOf(String orderId) {
+        if (orderId == null || !orderId.startsWith("ORD")) return null;
+        int dash = orderId.indexOf('-', 3);
+        return dash > 3 ? orderId.substring(3, dash) : null;
+    }
+}
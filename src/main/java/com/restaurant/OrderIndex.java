@@ -0,0 +1,129 @@
+package com.restaurant;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Secondary indexes over the orders held by OrderManager: by order time, by status and
+// by customer email. Each index is a concurrent skip list keyed by (order time, order
+// ID), so every lookup is O(log n + k) and comes back oldest first. OrderManager keeps
+// them in step with its store; an order's status move is done under that order's lock
+public class OrderIndex {
+    // Sort key: order time, then order ID so orders placed in the same millisecond differ
+    static final class Key implements Comparable<Key> {
+        final long time;
+        final String orderId;
+
+        Key(long time, String orderId) {
+            this.time = time;
+            this.orderId = orderId;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int c = Long.compare(time, other.time);
+            return c != 0 ? c : orderId.compareTo(other.orderId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).time == time && ((Key) o).orderId.equals(orderId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(time) * 31 + orderId.hashCode();
+        }
+    }
+
+    private final ConcurrentSkipListMap<Key, Order> byTime = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Key, Order>> byStatus = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Key, Order>> byEmail = new ConcurrentHashMap<>();
+
+    static long timeOf(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static Key keyOf(Order order) {
+        return new Key(timeOf(order.getOrderTime()), order.getOrderId());
+    }
+
+    // Statuses are accepted in any case by Order.setStatus, so the index ignores case too
+    private static String statusKey(String status) {
+        return status.toLowerCase(Locale.ROOT);
+    }
+
+    private static String emailKey(Order order) {
+        return order.getCustomer().getEmail().toLowerCase(Locale.ROOT);
+    }
+
+    void add(Order order) {
+        Key key = keyOf(order);
+        byTime.put(key, order);
+        byStatus.computeIfAbsent(statusKey(order.getStatus()), s -> new ConcurrentSkipListMap<>()).put(key, order);
+        byEmail.compute(emailKey(order), (email, orders) -> {
+            if (orders == null) orders = new ConcurrentSkipListMap<>();
+            orders.put(key, order);
+            return orders;
+        });
+    }
+
+    // Call with the order's lock held, after its status has changed
+    void statusChanged(Order order, String oldStatus) {
+        Key key = keyOf(order);
+        ConcurrentSkipListMap<Key, Order> old = byStatus.get(statusKey(oldStatus));
+        if (old != null) old.remove(key);
+        byStatus.computeIfAbsent(statusKey(order.getStatus()), s -> new ConcurrentSkipListMap<>()).put(key, order);
+    }
+
+    // Call with the order's lock held
+    void remove(Order order) {
+        Key key = keyOf(order);
+        byTime.remove(key);
+        ConcurrentSkipListMap<Key, Order> status = byStatus.get(statusKey(order.getStatus()));
+        if (status != null) status.remove(key);
+        byEmail.computeIfPresent(emailKey(order), (email, orders) -> {
+            orders.remove(key);
+            return orders.isEmpty() ? null : orders;
+        });
+    }
+
+    // Orders placed in [from, to), oldest first, at most limit of them
+    public List<Order> between(LocalDateTime from, LocalDateTime to, int limit) {
+        return take(range(byTime, from, to), limit);
+    }
+
+    public List<Order> byStatus(String status, LocalDateTime from, LocalDateTime to, int limit) {
+        ConcurrentSkipListMap<Key, Order> orders = byStatus.get(statusKey(status));
+        return orders == null ? Collections.emptyList() : take(range(orders, from, to), limit);
+    }
+
+    public List<Order> byCustomer(String email, LocalDateTime from, LocalDateTime to, int limit) {
+        ConcurrentSkipListMap<Key, Order> orders = byEmail.get(email.toLowerCase(Locale.ROOT));
+        return orders == null ? Collections.emptyList() : take(range(orders, from, to), limit);
+    }
+
+    // Null bounds are open; the lowest possible order ID sorts first, so a bound keeps
+    // every order placed in its millisecond
+    private static NavigableMap<Key, Order> range(ConcurrentSkipListMap<Key, Order> orders,
+                                                  LocalDateTime from, LocalDateTime to) {
+        if (from == null && to == null) return orders;
+        if (from == null) return orders.headMap(new Key(timeOf(to), ""), false);
+        if (to == null) return orders.tailMap(new Key(timeOf(from), ""), true);
+        long start = timeOf(from);
+        long end = timeOf(to);
+        if (end <= start) return Collections.emptyNavigableMap();
+        return orders.subMap(new Key(start, ""), true, new Key(end, ""), false);
+    }
+
+    private static List<Order> take(NavigableMap<Key, Order> orders, int limit) {
+        List<Order> result = new ArrayList<>(Math.min(limit, 64));
+        for (Order order : orders.values()) {
+            if (result.size() >= limit) break;
+            result.add(order);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,326 @@
+package com.restaurant;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead log of order events.
+//
+// File layout: header (magic "ORDJ", version), then records of
+//   [int payloadLength][byte type][payload][int crc32 of type + payload]
+// New record types are added alongside old ones so existing logs stay replayable.
+// Appends block until their record is on disk, but a single writer thread drains
+// every record queued while the previous fsync was running and commits them with
+// one write and one force, so concurrent orders share the flush cost.
+// On open, the log is replayed and a torn or corrupt tail is truncated away. A batch
+// that fails to write is cut back off the file; if even that fails, the journal stops
+// accepting appends rather than write after a tail it cannot vouch for.
+public class OrderJournal implements Closeable {
+    public static final int MAGIC = 0x4F52444A; // "ORDJ"
+    public static final short VERSION = 1;
+    private static final int HEADER_SIZE = 6;
+
+    static final byte ORDER_CREATED = 1;   // one item ID per unit; still replayed, no longer written
+    static final byte STATUS_CHANGED = 2;
+    static final byte ORDER_PLACED = 3;    // line items as (item ID, quantity); still replayed, no longer written
+    static final byte PAYMENT_CHANGED = 4; // payment outcome, e.g. Authorized or Declined
+    static final byte ORDER_PRICED = 5;    // tax rate, line items as (item ID, quantity, unit price)
+
+    // Prices and tax rate as the order was placed, so replay does not depend on today's
+    // menu and configuration. Both are -1 in records that predate them
+    public static final class Line {
+        private final String itemId;
+        private final int quantity;
+        private final long unitPriceCents;
+
+        Line(String itemId, int quantity, long unitPriceCents) {
+            this.itemId = itemId;
+            this.quantity = quantity;
+            this.unitPriceCents = unitPriceCents;
+        }
+
+        public String getItemId() { return itemId; }
+        public int getQuantity() { return quantity; }
+        public long getUnitPriceCents() { return unitPriceCents; }
+    }
+
+    // Receives records in log order during replay
+    public interface Listener {
+        // Lines in the order they were added, one per menu item ID
+        void orderCreated(String orderId, User customer, LocalDateTime orderTime, long taxBasisPoints,
+                          List<Line> lines);
+        void statusChanged(String orderId, String status);
+        void paymentChanged(String orderId, String paymentStatus);
+    }
+
+    private static class Pending {
+        final byte[] record;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        Pending(byte[] record) { this.record = record; }
+    }
+
+    private static final Pending SHUTDOWN = new Pending(new byte[0]);
+
+    private final FileChannel channel;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure; // set when a failed batch could not be rolled back
+
+    public OrderJournal(Path path, Listener listener) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION);
+                header.flip();
+                channel.write(header, 0);
+                channel.force(true);
+                channel.position(HEADER_SIZE);
+            } else {
+                long end = replay(listener);
+                if (end < channel.size()) {
+                    System.out.println("Journal: truncating " + (channel.size() - end)
+                        + " bytes of incomplete records");
+                    channel.truncate(end);
+                    channel.force(true);
+                }
+                channel.position(end);
+            }
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        writer = new Thread(this::writeLoop, "order-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Returns the offset just past the last complete, checksummed record
+    private long replay(Listener listener) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            java.nio.channels.Channels.newInputStream(channel.position(0)), 64 * 1024));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an order journal");
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported journal version: " + version);
+        }
+        long position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] body;
+            try {
+                int length = in.readInt();
+                if (length < 0 || length > channel.size() - position) {
+                    break;
+                }
+                body = new byte[length + 1];
+                in.readFully(body);
+                crc.reset();
+                crc.update(body);
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+            } catch (EOFException ex) {
+                break;
+            }
+            apply(body, listener);
+            position += 4 + body.length + 4;
+        }
+        return position;
+    }
+
+    private static void apply(byte[] body, Listener listener) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, 1, body.length - 1));
+        switch (body[0]) {
+            case ORDER_CREATED:
+            case ORDER_PLACED:
+            case ORDER_PRICED: {
+                String orderId = in.readUTF();
+                User customer = new User(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+                LocalDateTime orderTime = LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(in.readLong()), ZoneId.systemDefault());
+                long taxBasisPoints = body[0] == ORDER_PRICED ? in.readLong() : -1;
+                int count = in.readInt();
+                Map<String, Line> lines = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    String itemId = in.readUTF();
+                    int quantity = body[0] == ORDER_CREATED ? 1 : in.readInt();
+                    long unitPriceCents = body[0] == ORDER_PRICED ? in.readLong() : -1;
+                    // Older records list an item once per unit
+                    lines.merge(itemId, new Line(itemId, quantity, unitPriceCents),
+                        (a, b) -> new Line(itemId, a.quantity + b.quantity, a.unitPriceCents));
+                }
+                listener.orderCreated(orderId, customer, orderTime, taxBasisPoints, new ArrayList<>(lines.values()));
+                break;
+            }
+            case STATUS_CHANGED:
+                listener.statusChanged(in.readUTF(), in.readUTF());
+                break;
+            case PAYMENT_CHANGED:
+                listener.paymentChanged(in.readUTF(), in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown journal record type: " + body[0]);
+        }
+    }
+
+    public void appendOrderCreated(Order order) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        User customer = order.getCustomer();
+        out.writeUTF(order.getOrderId());
+        out.writeUTF(customer.getUserId());
+        out.writeUTF(customer.getName());
+        out.writeUTF(customer.getEmail());
+        out.writeUTF(customer.getPhone());
+        out.writeLong(order.getOrderTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        out.writeLong(order.getTaxBasisPoints());
+        List<OrderLine> lines = order.getLines();
+        out.writeInt(lines.size());
+        for (OrderLine line : lines) {
+            out.writeUTF(line.getItem().getId());
+            out.writeInt(line.getQuantity());
+            out.writeLong(line.getUnitPriceCents());
+        }
+        append(ORDER_PRICED, bytes.toByteArray());
+    }
+
+    public void appendStatusChanged(String orderId, String status) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(orderId);
+        out.writeUTF(status);
+        append(STATUS_CHANGED, bytes.toByteArray());
+    }
+
+    public void appendPaymentChanged(String orderId, String paymentStatus) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(orderId);
+        out.writeUTF(paymentStatus);
+        append(PAYMENT_CHANGED, bytes.toByteArray());
+    }
+
+    // Blocks until the record has been forced to disk
+    private void append(byte type, byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+        if (failure != null) {
+            throw new IOException("Journal failed", failure);
+        }
+        ByteBuffer record = ByteBuffer.allocate(4 + 1 + payload.length + 4);
+        record.putInt(payload.length).put(type).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, 1 + payload.length);
+        record.putInt((int) crc.getValue());
+        Pending pending = new Pending(record.array());
+        queue.add(pending);
+        // close() may have come in after the check above and the writer already gone;
+        // whoever takes the record off the queue completes it, so if it is still there
+        // nobody will
+        if (closed && queue.remove(pending)) {
+            throw new IOException("Journal is closed");
+        }
+        try {
+            pending.done.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for journal flush");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    // Group commit: everything queued while the last force was running goes out together
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ex) {
+                break;
+            }
+            queue.drainTo(batch);
+            if (batch.remove(SHUTDOWN)) {
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+            batch.clear();
+        }
+        Pending rest;
+        while ((rest = queue.poll()) != null) {
+            rest.done.completeExceptionally(new IOException("Journal is closed"));
+        }
+    }
+
+    private void commit(List<Pending> batch) {
+        if (failure != null) {
+            for (Pending p : batch) p.done.completeExceptionally(new IOException("Journal failed", failure));
+            return;
+        }
+        long start;
+        try {
+            start = channel.position();
+        } catch (IOException ex) {
+            failure = ex;
+            for (Pending p : batch) p.done.completeExceptionally(ex);
+            return;
+        }
+        try {
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.wrap(batch.get(i).record);
+            }
+            long remaining = 0;
+            for (ByteBuffer b : buffers) remaining += b.remaining();
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            channel.force(false);
+            for (Pending p : batch) p.done.complete(null);
+        } catch (IOException ex) {
+            // None of the batch is acknowledged, so none of it may be replayed either
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException rollback) {
+                ex.addSuppressed(rollback);
+                failure = ex;
+            }
+            for (Pending p : batch) p.done.completeExceptionally(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        queue.add(SHUTDOWN);
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Pending rest;
+        while ((rest = queue.poll()) != null) {
+            rest.done.completeExceptionally(new IOException("Journal is closed"));
+        }
+        channel.close();
+    }
+}
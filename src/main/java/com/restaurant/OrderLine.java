@@ -0,0 +1,38 @@
+package com.restaurant;
+
+// One line of an order: a menu item, the unit price it was ordered at, and how many
+public final class OrderLine {
+    private final MenuItem item;
+    private final long unitPriceCents;
+    private final int quantity;
+
+    public OrderLine(MenuItem item, long unitPriceCents, int quantity) {
+        if (item == null) {
+            throw new IllegalArgumentException("Cannot add null item");
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        this.item = item;
+        this.unitPriceCents = unitPriceCents;
+        this.quantity = quantity;
+    }
+
+    public MenuItem getItem() { return item; }
+    public double getUnitPrice() { return Money.toDollars(unitPriceCents); }
+    public long getUnitPriceCents() { return unitPriceCents; }
+    public int getQuantity() { return quantity; }
+
+    public long getLineTotalCents() {
+        return unitPriceCents * quantity;
+    }
+
+    OrderLine withQuantity(int newQuantity) {
+        return new OrderLine(item, unitPriceCents, newQuantity);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%dx %s", quantity, item.getName());
+    }
+}
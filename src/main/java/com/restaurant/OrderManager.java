@@ -1,59 +1,348 @@
 package com.restaurant;
 
 // Design Pattern: Observer Pattern
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
 import java.util.*;
-
-// Observer interface
-interface OrderObserver {
-    void update(String orderId, String status);
-}
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
 
 // Subject class
 public class OrderManager {
-    private List<OrderObserver> observers = new ArrayList<>();
-    private Map<String, Order> orders = new HashMap<>();
+    // Observers run asynchronously; -Dobservers.capacity and -Dobservers.backpressure=block|drop
+    private final OrderEventBus events = new OrderEventBus(
+        Integer.getInteger("observers.capacity", 4096), 256,
+        OrderEventBus.Backpressure.valueOf(
+            System.getProperty("observers.backpressure", "drop").toUpperCase()));
+    private final OrderStore orders = new OrderStore();
+    private final OrderIndex index = new OrderIndex();
+    private final OrderStateQueues byStatus = new OrderStateQueues();
+    private volatile OrderJournal journal;
+    private volatile OrderArchive archive;
+    // Delivered and cancelled orders waiting to be archived, oldest first
+    private final ConcurrentLinkedQueue<Finished> finished = new ConcurrentLinkedQueue<>();
+    
+    private static final class Finished {
+        final String orderId;
+        final long at;
+        Finished(String orderId, long at) {
+            this.orderId = orderId;
+            this.at = at;
+        }
+    }
+    
+    // Every change is written to the journal before it is acknowledged
+    public void setJournal(OrderJournal journal) {
+        this.journal = journal;
+    }
+    
+    // Finished orders are moved here by archiveFinished; lookups by ID fall back to it
+    public void setArchive(OrderArchive archive) {
+        this.archive = archive;
+    }
+    
+    public OrderArchive getArchive() {
+        return archive;
+    }
+    
+    // Journal listener that rebuilds orders without re-journaling or notifying observers.
+    // Orders come back at the prices and tax rate they were placed with; only records
+    // written before those were journaled fall back to the current menu and configuration
+    public OrderJournal.Listener recovery(Function<String, MenuItem> menu) {
+        return new OrderJournal.Listener() {
+            @Override
+            public void orderCreated(String orderId, User customer, LocalDateTime orderTime, long taxBasisPoints,
+                                     List<OrderJournal.Line> lines) {
+                Order order = taxBasisPoints >= 0
+                    ? new Order(orderId, customer, orderTime, taxBasisPoints)
+                    : new Order(orderId, customer, orderTime);
+                for (OrderJournal.Line line : lines) {
+                    String itemId = line.getItemId();
+                    MenuItem item = menu.apply(itemId);
+                    if (item == null) {
+                        System.out.println("Journal: unknown menu item " + itemId + " in " + orderId);
+                        continue;
+                    }
+                    try {
+                        order.addItem(item, line.getQuantity(),
+                            line.getUnitPriceCents() >= 0 ? line.getUnitPriceCents() : item.getPriceCents());
+                    } catch (IllegalArgumentException ex) {
+                        // e.g. a quantity over today's limit in an older record
+                        System.out.println("Journal: skipping " + itemId + " in " + orderId + ": " + ex.getMessage());
+                    }
+                }
+                if (orders.putIfAbsent(order)) {
+                    indexNew(order);
+                }
+            }
+            
+            @Override
+            public void statusChanged(String orderId, String status) {
+                Order order = orders.get(orderId);
+                if (order != null) {
+                    restoreStatus(order, OrderStatus.parse(status));
+                }
+            }
+            
+            @Override
+            public void paymentChanged(String orderId, String paymentStatus) {
+                Order order = orders.get(orderId);
+                if (order != null) {
+                    order.setPaymentStatus(paymentStatus);
+                }
+            }
+        };
+    }
     
     // Register observer
     public void addObserver(OrderObserver observer) {
-        observers.add(observer);
+        events.subscribe(observer);
+    }
+    
+    // Register an observer that must not miss events, whatever -Dobservers.backpressure says
+    public void addLosslessObserver(OrderObserver observer) {
+        events.subscribe(observer, OrderEventBus.Backpressure.BLOCK);
     }
     
     // Remove observer
     public void removeObserver(OrderObserver observer) {
-        observers.remove(observer);
+        events.unsubscribe(observer);
     }
     
-    // Notify all observers
+    // Notify all observers (queued; never runs observer code on the caller's thread)
     private void notifyObservers(String orderId, String status) {
-        for (OrderObserver observer : observers) {
-            observer.update(orderId, status);
-        }
+        events.publish(orderId, status);
+    }
+    
+    public OrderEventBus getEventBus() {
+        return events;
+    }
+    
+    // Lets observers finish what is already queued
+    public void shutdown() {
+        events.shutdown(2000);
     }
     
     // Add order
     public void addOrder(Order order) {
-        orders.put(order.getOrderId(), order);
+        if (!orders.putIfAbsent(order)) {
+            throw new IllegalArgumentException("Duplicate order ID: " + order.getOrderId());
+        }
+        indexNew(order);
+        OrderJournal j = journal;
+        if (j != null) {
+            try {
+                j.appendOrderCreated(order);
+            } catch (IOException ex) {
+                removeOrder(order.getOrderId());
+                throw new UncheckedIOException("Could not journal order " + order.getOrderId(), ex);
+            }
+        }
         notifyObservers(order.getOrderId(), "Order Created");
     }
     
-    // Update order status
+    // Update order status. The move must be legal from the order's current status
+    // (IllegalStateException otherwise); moving to the status it already has, or updating
+    // an order that is not live, does nothing
     public void updateOrderStatus(String orderId, String newStatus) {
+        OrderStatus next = OrderStatus.parse(newStatus);
         Order order = orders.get(orderId);
         if (order != null) {
-            order.setStatus(newStatus);
-            notifyObservers(orderId, newStatus);
+            changeStatus(order, null, next);
+        }
+    }
+    
+    // Makes the move only if the order is still in expected, e.g. so the kitchen cannot
+    // overwrite a cancellation made at the counter. Returns whether it moved
+    public boolean compareAndSetStatus(String orderId, OrderStatus expected, OrderStatus next) {
+        Order order = orders.get(orderId);
+        return order != null && changeStatus(order, expected, next);
+    }
+    
+    // Called with the order's lock held, so two moves of one order reach the journal and
+    // observers in the order they were made; replay does not check the state machine and
+    // would otherwise restore whichever record came last
+    private void statusChanged(String orderId, OrderStatus next) {
+        OrderJournal j = journal;
+        if (j != null) {
+            try {
+                j.appendStatusChanged(orderId, next.getLabel());
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not journal status of " + orderId, ex);
+            }
         }
+        notifyObservers(orderId, next.getLabel());
     }
     
+    // Records a payment outcome (Authorized, Declined, Failed) so a restart knows which
+    // orders were paid for. Observers are not told; the order's status has not changed
+    public void updatePaymentStatus(String orderId, String paymentStatus) {
+        Order order = orders.get(orderId);
+        if (order == null) return;
+        synchronized (order) {
+            order.setPaymentStatus(paymentStatus);
+            OrderJournal j = journal;
+            if (j != null) {
+                try {
+                    j.appendPaymentChanged(orderId, paymentStatus);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Could not journal payment of " + orderId, ex);
+                }
+            }
+        }
+    }
+    
+    // Live orders are returned as they are; archived ones as a detached, read-only copy
     public Order getOrder(String orderId) {
-        return orders.get(orderId);
+        Order order = orders.get(orderId);
+        if (order != null) return order;
+        OrderArchive a = archive;
+        return a != null ? a.get(orderId) : null;
     }
-}
-
-// Concrete Observer
-class NotificationService implements OrderObserver {
-    @Override
-    public void update(String orderId, String status) {
-        System.out.println("Notification: Order " + orderId + " status changed to " + status);
+    
+    // Drops an order from memory without journaling or notifying (not a cancellation)
+    public Order removeOrder(String orderId) {
+        Order order = orders.remove(orderId);
+        if (order != null) {
+            synchronized (order) {
+                index.remove(order);
+                byStatus.remove(order);
+            }
+            return order;
+        }
+        OrderArchive a = archive;
+        if (a != null && (order = a.get(orderId)) != null) {
+            a.remove(orderId);
+        }
+        return order;
+    }
+    
+    // Moves orders that were delivered or cancelled at least olderThanMillis ago out of the
+    // live store and its indexes into the archive. The delay gives observers and status
+    // streams time to finish with the live order. Returns the number moved
+    public int archiveFinished(long olderThanMillis) {
+        OrderArchive a = archive;
+        if (a == null) return 0;
+        long cutoff = System.currentTimeMillis() - olderThanMillis;
+        int moved = 0;
+        Finished next;
+        while ((next = finished.peek()) != null && next.at <= cutoff) {
+            finished.poll();
+            Order order = orders.get(next.orderId);
+            if (order == null) continue;
+            synchronized (order) {
+                if (!order.getOrderStatus().isFinal() || orders.get(order.getOrderId()) != order) continue;
+                try {
+                    a.put(order);
+                } catch (IOException | IllegalArgumentException ex) {
+                    System.out.println("Archive: keeping " + order.getOrderId() + " live: " + ex.getMessage());
+                    continue;
+                }
+                index.remove(order);
+                byStatus.remove(order);
+                orders.remove(order.getOrderId());
+            }
+            moved++;
+        }
+        return moved;
+    }
+    
+    // Index updates for one order are made under its lock, so a status move can't
+    // interleave with another move or a removal and leave it filed under the wrong status
+    private void indexNew(Order order) {
+        synchronized (order) {
+            if (orders.get(order.getOrderId()) == order) {
+                index.add(order);
+                byStatus.add(order);
+            }
+        }
+    }
+    
+    // The status itself is changed by compare-and-set, so the order's state stays right
+    // even for updates that bypass OrderManager; the lock keeps the bookkeeping, journal
+    // record and event for one order in sequence. A journal failure is thrown after the
+    // move. With expected null, any legal move from the current status
+    private boolean changeStatus(Order order, OrderStatus expected, OrderStatus next) {
+        synchronized (order) {
+            OrderStatus old;
+            if (expected == null) {
+                old = order.transitionTo(next);
+                if (old == null) return false;
+            } else if (order.compareAndSetStatus(expected, next)) {
+                old = expected;
+            } else {
+                return false;
+            }
+            track(order, old);
+            statusChanged(order.getOrderId(), next);
+            return true;
+        }
+    }
+    
+    // Replayed from the journal, whose older records may not follow the state machine
+    private void restoreStatus(Order order, OrderStatus next) {
+        synchronized (order) {
+            OrderStatus old = order.getOrderStatus();
+            if (old == next) return;
+            order.restoreStatus(next);
+            track(order, old);
+        }
+    }
+    
+    // Called with the order's lock held, after its status has moved on from old
+    private void track(Order order, OrderStatus old) {
+        if (orders.get(order.getOrderId()) != order) return;
+        index.statusChanged(order, old.getLabel());
+        byStatus.move(order);
+        if (archive != null && order.getOrderStatus().isFinal() && !old.isFinal()) {
+            finished.add(new Finished(order.getOrderId(), System.currentTimeMillis()));
+        }
+    }
+    
+    // Index queries: oldest first, at most limit orders, null time bounds are open
+    public List<Order> getOrdersByCustomer(String email, LocalDateTime from, LocalDateTime to, int limit) {
+        return index.byCustomer(email, from, to, limit);
+    }
+    
+    public List<Order> getOrdersByStatus(String status, LocalDateTime from, LocalDateTime to, int limit) {
+        return index.byStatus(status, from, to, limit);
+    }
+    
+    public List<Order> getOrdersBetween(LocalDateTime from, LocalDateTime to, int limit) {
+        return index.between(from, to, limit);
+    }
+    
+    // Live counts and queues per status, O(1)
+    public int getOrderCountByStatus(String status) {
+        return byStatus.count(OrderStatus.parse(status));
+    }
+    
+    public int getOrderCount(OrderStatus status) {
+        return byStatus.count(status);
+    }
+    
+    // The live order that has been in the status longest, e.g. the next Ready order to hand out
+    public Order getOldestOrder(OrderStatus status) {
+        return byStatus.oldest(status);
+    }
+    
+    public List<Order> getOldestOrders(OrderStatus status, int limit) {
+        return byStatus.oldest(status, limit);
+    }
+    
+    // Live orders only; see getArchivedCount
+    public int getOrderCount() {
+        return orders.size();
+    }
+    
+    public int getArchivedCount() {
+        OrderArchive a = archive;
+        return a != null ? a.size() : 0;
+    }
+    
+    // Live orders only, as are the index queries above
+    public List<Order> getAllOrders() {
+        return orders.values();
     }
 }
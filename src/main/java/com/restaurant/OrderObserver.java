@@ -0,0 +1,16 @@
+package com.restaurant;
+
+import java.util.List;
+
+// Design Pattern: Observer Pattern
+// Observer interface; OrderManager is the subject
+interface OrderObserver {
+    void update(String orderId, String status);
+    
+    // Called from the observer's own event thread with everything queued since the last call
+    default void update(List<OrderEvent> events) {
+        for (OrderEvent event : events) {
+            update(event.getOrderId(), event.getStatus());
+        }
+    }
+}
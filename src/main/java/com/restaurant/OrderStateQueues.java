@@ -0,0 +1,119 @@
+package com.restaurant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Orders grouped by status: for each status a count and a list of its orders in the
+// order they arrived in it, so "how many are Preparing" and "which Ready order has
+// waited longest" are O(1). The list links live in Order itself, so moving an order
+// between statuses allocates nothing. Each status has its own lock, and an order is
+// never in two lists at once. Callers hold the order's own lock, which keeps moves of
+// one order in sequence
+final class OrderStateQueues {
+    private static final class Queue {
+        final ReentrantLock lock = new ReentrantLock();
+        Order head;             // longest in this status
+        Order tail;
+        volatile int size;
+    }
+
+    private final Queue[] queues = new Queue[OrderStatus.count()];
+
+    OrderStateQueues() {
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new Queue();
+        }
+    }
+
+    // Files the order under its current status
+    void add(Order order) {
+        append(order, order.getOrderStatus());
+    }
+
+    // Refiles the order under its current status after a change
+    void move(Order order) {
+        OrderStatus now = order.getOrderStatus();
+        if (order.queuedIn == now) return;
+        unlink(order);
+        append(order, now);
+    }
+
+    void remove(Order order) {
+        unlink(order);
+    }
+
+    int count(OrderStatus status) {
+        return queues[status.ordinal()].size;
+    }
+
+    // The order that has been in the status longest, or null
+    Order oldest(OrderStatus status) {
+        Queue q = queues[status.ordinal()];
+        q.lock.lock();
+        try {
+            return q.head;
+        } finally {
+            q.lock.unlock();
+        }
+    }
+
+    // Up to limit orders from the head of the status's list
+    List<Order> oldest(OrderStatus status, int limit) {
+        Queue q = queues[status.ordinal()];
+        List<Order> result = new ArrayList<>(Math.min(limit, 64));
+        q.lock.lock();
+        try {
+            for (Order o = q.head; o != null && result.size() < limit; o = o.nextInStatus) {
+                result.add(o);
+            }
+        } finally {
+            q.lock.unlock();
+        }
+        return result;
+    }
+
+    private void append(Order order, OrderStatus status) {
+        Queue q = queues[status.ordinal()];
+        q.lock.lock();
+        try {
+            order.queuedIn = status;
+            order.prevInStatus = q.tail;
+            order.nextInStatus = null;
+            if (q.tail != null) {
+                q.tail.nextInStatus = order;
+            } else {
+                q.head = order;
+            }
+            q.tail = order;
+            q.size = q.size + 1;
+        } finally {
+            q.lock.unlock();
+        }
+    }
+
+    private void unlink(Order order) {
+        OrderStatus in = order.queuedIn;
+        if (in == null) return;
+        Queue q = queues[in.ordinal()];
+        q.lock.lock();
+        try {
+            if (order.prevInStatus != null) {
+                order.prevInStatus.nextInStatus = order.nextInStatus;
+            } else {
+                q.head = order.nextInStatus;
+            }
+            if (order.nextInStatus != null) {
+                order.nextInStatus.prevInStatus = order.prevInStatus;
+            } else {
+                q.tail = order.prevInStatus;
+            }
+            order.prevInStatus = null;
+            order.nextInStatus = null;
+            order.queuedIn = null;
+            q.size = q.size - 1;
+        } finally {
+            q.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.restaurant;
+
+// Order lifecycle. An order only moves forward along
+//   Pending -> Preparing -> Ready -> Delivered
+// and may be cancelled from any state before Delivered. Delivered and Cancelled are final
+public enum OrderStatus {
+    PENDING("Pending"),
+    PREPARING("Preparing"),
+    READY("Ready"),
+    DELIVERED("Delivered"),
+    CANCELLED("Cancelled");
+
+    private static final OrderStatus[] ALL = values(); // values() copies on every call
+
+    private final String label;
+
+    OrderStatus(String label) {
+        this.label = label;
+    }
+
+    // The name used in the API, the journal and order events
+    public String getLabel() { return label; }
+
+    public boolean isFinal() {
+        return this == DELIVERED || this == CANCELLED;
+    }
+
+    public boolean canMoveTo(OrderStatus next) {
+        switch (this) {
+            case PENDING:   return next == PREPARING || next == CANCELLED;
+            case PREPARING: return next == READY || next == CANCELLED;
+            case READY:     return next == DELIVERED || next == CANCELLED;
+            default:        return false;
+        }
+    }
+
+    // Accepts a label in any case, e.g. "ready" or "Ready"
+    public static OrderStatus parse(String label) {
+        if (label != null) {
+            for (OrderStatus s : ALL) {
+                if (s.label.equalsIgnoreCase(label)) return s;
+            }
+        }
+        throw new IllegalArgumentException("Invalid status: " + label);
+    }
+
+    static OrderStatus of(int ordinal) {
+        return ALL[ordinal];
+    }
+
+    static int count() {
+        return ALL.length;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
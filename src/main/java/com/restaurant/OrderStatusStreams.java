@@ -0,0 +1,255 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.HttpExchange;
+
+// Server-Sent Events for order status. A subscription holds no thread: the handler
+// sends the headers and queues the first event, then returns and leaves the exchange
+// open, so idle streams cost a socket and a small object whatever the executor mode.
+// Status events only mark a subscriber dirty; a few writer threads then send the
+// order's current status, so bursts of changes collapse into one event with the
+// latest value. Writes block, so a watchdog interrupts any write still running after
+// slowMillis, which closes that client's socket and frees the writer; the client is
+// disconnected instead of being buffered for. EventSource reconnects and starts again
+// from the current status
+public class OrderStatusStreams implements OrderObserver {
+    private final OrderManager orders;
+    private final int maxSubscribers;
+    private final long slowMillis;
+    private final ConcurrentHashMap<String, Set<Subscriber>> byOrder = new ConcurrentHashMap<>();
+    // Each subscriber is in here at most once, so it is bounded by the subscriber count
+    private final LinkedBlockingQueue<Subscriber> dirty = new LinkedBlockingQueue<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong droppedSlow = new AtomicLong();
+    private final List<Thread> writers = new ArrayList<>();
+    // Subscribers a writer is sending to right now, at most one per writer
+    private final Set<Subscriber> inWrite = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopping;
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sse-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public OrderStatusStreams(OrderManager orders, int writerThreads, int maxSubscribers,
+                              long slowMillis, long heartbeatMillis) {
+        if (writerThreads <= 0 || maxSubscribers <= 0) {
+            throw new IllegalArgumentException("Writer threads and subscriber limit must be positive");
+        }
+        if (slowMillis <= 0 || heartbeatMillis <= 0) {
+            throw new IllegalArgumentException("Timeouts must be positive");
+        }
+        this.orders = orders;
+        this.maxSubscribers = maxSubscribers;
+        this.slowMillis = slowMillis;
+        for (int i = 1; i <= writerThreads; i++) {
+            Thread writer = new Thread(this::writeLoop, "sse-writer-" + i);
+            writer.setDaemon(true);
+            writers.add(writer);
+            writer.start();
+        }
+        // Comments keep proxies from timing the stream out, find dead clients, and
+        // resend the status if the event that announced it was dropped by the bus
+        heartbeat.scheduleWithFixedDelay(this::heartbeatAll, heartbeatMillis, heartbeatMillis,
+            TimeUnit.MILLISECONDS);
+        long check = Math.max(1, slowMillis / 4);
+        heartbeat.scheduleWithFixedDelay(this::interruptSlowWrites, check, check, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class Subscriber {
+        final String orderId;
+        final HttpExchange exchange;
+        final OutputStream out;
+        final AtomicBoolean queued = new AtomicBoolean();
+        volatile boolean ping;
+        boolean closed;             // guarded by this
+        boolean started;            // guarded by this
+        String lastSent;            // guarded by this
+        // The writer thread and when its write began; guarded by inWrite
+        Thread writer;
+        long writeStart;
+        boolean timedOut;
+        Subscriber(String orderId, HttpExchange exchange) {
+            this.orderId = orderId;
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+        }
+    }
+
+    // Returns false (nothing sent) when the subscriber limit is reached
+    public boolean subscribe(String orderId, HttpExchange exchange) throws IOException {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            return false;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        Subscriber s = new Subscriber(orderId, exchange);
+        // Registered before the first write, so a change in between is not missed. The
+        // first event goes out on a writer, so a client that does not read cannot hold
+        // the request thread
+        byOrder.compute(orderId, (k, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(s);
+            return set;
+        });
+        enqueue(s);
+        return true;
+    }
+
+    @Override
+    public void update(String orderId, String status) {
+        markDirty(orderId);
+    }
+
+    // The batch may hold several changes for one order; each subscriber is marked once
+    @Override
+    public void update(List<OrderEvent> events) {
+        String previous = null;
+        for (OrderEvent event : events) {
+            if (!event.getOrderId().equals(previous)) {
+                markDirty(event.getOrderId());
+                previous = event.getOrderId();
+            }
+        }
+    }
+
+    private void markDirty(String orderId) {
+        Set<Subscriber> set = byOrder.get(orderId);
+        if (set == null) return;
+        for (Subscriber s : set) {
+            enqueue(s);
+        }
+    }
+
+    private void heartbeatAll() {
+        for (Set<Subscriber> set : byOrder.values()) {
+            for (Subscriber s : set) {
+                s.ping = true;
+                enqueue(s);
+            }
+        }
+    }
+
+    private void enqueue(Subscriber s) {
+        if (s.queued.compareAndSet(false, true)) {
+            dirty.add(s);
+        }
+    }
+
+    private void writeLoop() {
+        ResponseBuffer buffer = new ResponseBuffer();
+        while (!stopping) {
+            Subscriber s;
+            try {
+                s = dirty.take();
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            s.queued.set(false);
+            write(s, buffer);
+        }
+    }
+
+    // Interrupting a thread blocked on a socket write closes the socket, so the write
+    // fails at once. Runs under inWrite's lock, as does the end of every write, so an
+    // interrupt never reaches a writer after it has moved on
+    private void interruptSlowWrites() {
+        long now = System.currentTimeMillis();
+        synchronized (inWrite) {
+            for (Subscriber s : inWrite) {
+                if (!s.timedOut && now - s.writeStart > slowMillis) {
+                    s.timedOut = true;
+                    s.writer.interrupt();
+                }
+            }
+        }
+    }
+
+    // Sends the order's current status if it differs from the last one sent, otherwise a
+    // heartbeat comment if one is due. Streams end once the order is delivered, cancelled or gone
+    private void write(Subscriber s, ResponseBuffer buffer) {
+        synchronized (s) {
+            if (s.closed) return;
+            boolean ping = s.ping;
+            s.ping = false;
+            Order order = orders.getOrder(s.orderId);
+            String status = order != null ? order.getStatus() : "Removed";
+            buffer.reset();
+            if (!s.started) {
+                buffer.append("retry: 3000\n");
+                s.started = true;
+            }
+            if (!status.equals(s.lastSent)) {
+                JsonWriter json = new JsonWriter(buffer.append("event: status\ndata: "));
+                json.beginObject().name("orderId").value(s.orderId).name("status").value(status).endObject();
+                buffer.append("\n\n");
+                s.lastSent = status;
+            } else if (ping) {
+                buffer.append(": ping\n\n");
+            } else {
+                return;
+            }
+            IOException failed = null;
+            synchronized (inWrite) {
+                s.writer = Thread.currentThread();
+                s.writeStart = System.currentTimeMillis();
+                inWrite.add(s);
+            }
+            try {
+                buffer.writeTo(s.out);
+                s.out.flush();
+            } catch (IOException ex) {
+                failed = ex;
+            }
+            boolean timedOut;
+            synchronized (inWrite) {
+                inWrite.remove(s);
+                s.writer = null;
+                timedOut = s.timedOut;
+            }
+            if (timedOut) {
+                Thread.interrupted();
+                droppedSlow.incrementAndGet();
+                close(s);
+            } else if (failed != null) {
+                close(s);
+            } else if (order == null || "Delivered".equalsIgnoreCase(status)
+                    || "Cancelled".equalsIgnoreCase(status)) {
+                close(s);
+            }
+        }
+    }
+
+    private void close(Subscriber s) {
+        synchronized (s) {
+            if (s.closed) return;
+            s.closed = true;
+        }
+        byOrder.computeIfPresent(s.orderId, (k, set) -> {
+            set.remove(s);
+            return set.isEmpty() ? null : set;
+        });
+        subscribers.decrementAndGet();
+        s.exchange.close();
+    }
+
+    public int getSubscriberCount() { return subscribers.get(); }
+    public long getDroppedSlowCount() { return droppedSlow.get(); }
+
+    public void shutdown() {
+        stopping = true;
+        heartbeat.shutdownNow();
+        for (Thread writer : writers) writer.interrupt();
+        for (Set<Subscriber> set : byOrder.values()) {
+            for (Subscriber s : set) close(s);
+        }
+    }
+}
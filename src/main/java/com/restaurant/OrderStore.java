@@ -0,0 +1,72 @@
+package com.restaurant;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Concurrent order storage split into independent stripes. Each stripe resizes on its own,
+// so a day's worth of inserts never stalls every writer behind one big rehash
+public class OrderStore {
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final ConcurrentHashMap<String, Order>[] stripes;
+    private final int mask;
+    private final LongAdder size = new LongAdder();
+
+    public OrderStore() {
+        this(DEFAULT_STRIPES);
+    }
+
+    @SuppressWarnings("unchecked")
+    public OrderStore(int stripeCount) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("Stripe count must be a positive power of two");
+        }
+        stripes = (ConcurrentHashMap<String, Order>[]) new ConcurrentHashMap<?, ?>[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+        mask = stripeCount - 1;
+    }
+
+    private ConcurrentHashMap<String, Order> stripeFor(String orderId) {
+        int h = orderId.hashCode();
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    // Returns false if an order with the same ID is already stored
+    public boolean putIfAbsent(Order order) {
+        if (stripeFor(order.getOrderId()).putIfAbsent(order.getOrderId(), order) != null) {
+            return false;
+        }
+        size.increment();
+        return true;
+    }
+
+    public Order get(String orderId) {
+        if (orderId == null) return null;
+        return stripeFor(orderId).get(orderId);
+    }
+
+    public Order remove(String orderId) {
+        if (orderId == null) return null;
+        Order removed = stripeFor(orderId).remove(orderId);
+        if (removed != null) {
+            size.decrement();
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size.intValue();
+    }
+
+    // Weakly consistent snapshot across all stripes
+    public List<Order> values() {
+        List<Order> all = new ArrayList<>(size());
+        for (ConcurrentHashMap<String, Order> stripe : stripes) {
+            all.addAll(stripe.values());
+        }
+        return all;
+    }
+}
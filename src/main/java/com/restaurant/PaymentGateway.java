@@ -0,0 +1,57 @@
+package com.restaurant;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// A remote payment provider that takes many payments per call. The returned future
+// completes with one result per request, in request order, or exceptionally when the
+// call as a whole failed (network error, provider outage)
+public interface PaymentGateway {
+    CompletableFuture<List<Result>> submit(List<Request> batch);
+
+    enum Kind { AUTHORIZE, REFUND }
+
+    final class Request {
+        private final Kind kind;
+        private final String reference;
+        private final String method;
+        private final long amountCents;
+
+        public Request(Kind kind, String reference, String method, long amountCents) {
+            if (amountCents <= 0) {
+                throw new IllegalArgumentException("Payment amount must be positive");
+            }
+            this.kind = kind;
+            this.reference = reference;
+            this.method = method;
+            this.amountCents = amountCents;
+        }
+
+        public Kind getKind() { return kind; }
+        public String getReference() { return reference; }
+        public String getMethod() { return method; }
+        public long getAmountCents() { return amountCents; }
+    }
+
+    // A decline is a normal result; only failures of the call itself complete exceptionally
+    final class Result {
+        private final String reference;
+        private final boolean approved;
+        private final String code; // authorization code, or the decline reason
+
+        public Result(String reference, boolean approved, String code) {
+            this.reference = reference;
+            this.approved = approved;
+            this.code = code;
+        }
+
+        public String getReference() { return reference; }
+        public boolean isApproved() { return approved; }
+        public String getCode() { return code; }
+
+        @Override
+        public String toString() {
+            return (approved ? "Approved " : "Declined ") + reference + " (" + code + ")";
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.restaurant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Asynchronous front end to a PaymentGateway. Callers get a future straight away; a
+// batcher thread collects whatever is queued (up to maxBatch, waiting at most
+// lingerMillis for more) and sends it as one gateway call. At most maxInFlight calls
+// are outstanding; a call's payments fail after timeoutMillis, but its slot is only
+// freed once the gateway call itself ends. When every call slot is busy the queue fills
+// up, and further payments fail fast instead of piling up. A caller that must not take
+// on work it cannot pay for reserves its place in the queue first. Results are delivered
+// on a small callback pool, never on the gateway's own thread
+public class PaymentPipeline {
+    // The queue has no room; the caller should turn the work away and let it be retried
+    public static class QueueFullException extends RejectedExecutionException {
+        private static final long serialVersionUID = 1L;
+        public QueueFullException() {
+            super("Payment queue is full");
+        }
+    }
+
+
+    private static final class Pending {
+        final PaymentGateway.Request request;
+        final CompletableFuture<PaymentGateway.Result> result = new CompletableFuture<>();
+        Pending(PaymentGateway.Request request) { this.request = request; }
+    }
+
+    private final PaymentGateway gateway;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final long timeoutMillis;
+    private final Semaphore callSlots;
+    private final int maxInFlight;
+    private final ArrayBlockingQueue<Pending> queue;
+    // One permit per free place in the queue, taken on enqueue or by tryReserve and
+    // returned when the batcher takes the payment off the queue
+    private final Semaphore queueSlots;
+    private final ExecutorService callbacks;
+    private final Executor callbackExecutor;
+    private final Thread batcher;
+    private final AtomicLong references = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong declined = new AtomicLong();
+    private volatile boolean running = true;
+
+    public PaymentPipeline(PaymentGateway gateway, int maxBatch, long lingerMillis, int maxInFlight,
+                           long timeoutMillis, int queueCapacity) {
+        if (maxBatch <= 0 || maxInFlight <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Batch size, in-flight calls and queue capacity must be positive");
+        }
+        if (lingerMillis < 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid linger or timeout");
+        }
+        this.gateway = gateway;
+        this.maxBatch = maxBatch;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.timeoutMillis = timeoutMillis;
+        this.maxInFlight = maxInFlight;
+        this.callSlots = new Semaphore(maxInFlight);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.queueSlots = new Semaphore(queueCapacity);
+        this.callbacks = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "payment-callbacks");
+            t.setDaemon(true);
+            return t;
+        });
+        // Once the pool is shut down, a call that finishes late still completes its futures
+        this.callbackExecutor = task -> {
+            try {
+                callbacks.execute(task);
+            } catch (RejectedExecutionException ex) {
+                task.run();
+            }
+        };
+        this.batcher = new Thread(this::batchLoop, "payment-batcher");
+        this.batcher.setDaemon(true);
+        this.batcher.start();
+    }
+
+    public CompletableFuture<PaymentGateway.Result> authorize(String reference, String method, long amountCents) {
+        return enqueue(new PaymentGateway.Request(PaymentGateway.Kind.AUTHORIZE, reference, method, amountCents), false);
+    }
+
+    // Uses a place taken earlier with tryReserve
+    public CompletableFuture<PaymentGateway.Result> authorizeReserved(String reference, String method,
+                                                                      long amountCents) {
+        return enqueue(new PaymentGateway.Request(PaymentGateway.Kind.AUTHORIZE, reference, method, amountCents), true);
+    }
+
+    public CompletableFuture<PaymentGateway.Result> refund(String reference, String method, long amountCents) {
+        return enqueue(new PaymentGateway.Request(PaymentGateway.Kind.REFUND, reference, method, amountCents), false);
+    }
+
+    // Holds a place in the queue for a payment the caller has yet to make, so it can
+    // refuse the work up front rather than accept it and fail its payment. On true the
+    // caller must follow up with authorizeReserved or cancelReservation
+    public boolean tryReserve() {
+        return running && queueSlots.tryAcquire();
+    }
+
+    public void cancelReservation() {
+        queueSlots.release();
+    }
+
+    private CompletableFuture<PaymentGateway.Result> enqueue(PaymentGateway.Request request, boolean reserved) {
+        Pending pending = new Pending(request);
+        if (!reserved && !queueSlots.tryAcquire()) {
+            pending.result.completeExceptionally(new QueueFullException());
+        } else if (!running || !queue.offer(pending)) {
+            queueSlots.release();
+            pending.result.completeExceptionally(new RejectedExecutionException("Payment pipeline is shut down"));
+        }
+        return pending.result;
+    }
+
+    private void batchLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            boolean slot = false;
+            try {
+                batch.add(queue.take());
+                queueSlots.release();
+                // Wait for a free call slot; payments arriving meanwhile join this batch
+                callSlots.acquire();
+                slot = true;
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatch) {
+                    queueSlots.release(queue.drainTo(batch, maxBatch - batch.size()));
+                    long left = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || left <= 0) break;
+                    Pending next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    queueSlots.release();
+                    batch.add(next);
+                }
+            } catch (InterruptedException ex) {
+                if (slot) callSlots.release();
+                break;
+            }
+            dispatch(new ArrayList<>(batch));
+            batch.clear();
+        }
+        for (Pending p : batch) {
+            p.result.completeExceptionally(new RejectedExecutionException("Payment pipeline is shut down"));
+        }
+        Pending rest;
+        while ((rest = queue.poll()) != null) {
+            queueSlots.release();
+            rest.result.completeExceptionally(new RejectedExecutionException("Payment pipeline is shut down"));
+        }
+    }
+
+    private void dispatch(List<Pending> batch) {
+        batches.incrementAndGet();
+        List<PaymentGateway.Request> requests = new ArrayList<>(batch.size());
+        for (Pending p : batch) requests.add(p.request);
+        CompletableFuture<List<PaymentGateway.Result>> call;
+        try {
+            call = gateway.submit(requests);
+        } catch (RuntimeException ex) {
+            call = CompletableFuture.failedFuture(ex);
+        }
+        call.whenComplete((results, error) -> callSlots.release());
+        // The timeout applies to a copy, so the call itself keeps its slot until it ends
+        call.copy().orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenCompleteAsync((results, error) -> {
+            if (error == null && results.size() != batch.size()) {
+                error = new IllegalStateException("Gateway returned " + results.size()
+                    + " results for " + batch.size() + " payments");
+            }
+            if (error != null) {
+                failedCalls.incrementAndGet();
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+                for (Pending p : batch) p.result.completeExceptionally(cause);
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                PaymentGateway.Result result = results.get(i);
+                if (!result.isApproved()) declined.incrementAndGet();
+                batch.get(i).result.complete(result);
+            }
+        }, callbackExecutor);
+    }
+
+    // A PaymentProcessor whose calls go through this pipeline; the synchronous methods
+    // wait for the result and report gateway failures as a failed payment
+    public PaymentProcessor processor(String method) {
+        return new PaymentProcessor() {
+            @Override
+            public boolean processPayment(double amount) {
+                return processPaymentCents(Money.ofDollars(amount));
+            }
+
+            @Override
+            public boolean processPaymentCents(long amountCents) {
+                return await(processPaymentAsync(amountCents));
+            }
+
+            @Override
+            public CompletableFuture<Boolean> processPaymentAsync(long amountCents) {
+                return authorize("PAY" + references.incrementAndGet(), method, amountCents)
+                    .thenApply(PaymentGateway.Result::isApproved);
+            }
+
+            @Override
+            public boolean refund(double amount) {
+                return refundCents(Money.ofDollars(amount));
+            }
+
+            @Override
+            public boolean refundCents(long amountCents) {
+                return await(refundAsync(amountCents));
+            }
+
+            @Override
+            public CompletableFuture<Boolean> refundAsync(long amountCents) {
+                return PaymentPipeline.this.refund("REF" + references.incrementAndGet(), method, amountCents)
+                    .thenApply(PaymentGateway.Result::isApproved);
+            }
+
+            @Override
+            public String getPaymentMethod() {
+                return method;
+            }
+
+            private boolean await(CompletableFuture<Boolean> future) {
+                try {
+                    return future.join();
+                } catch (CompletionException | CancellationException ex) {
+                    System.out.println("Payment failed: " + ex.getCause());
+                    return false;
+                }
+            }
+        };
+    }
+
+    public int getQueued() { return queue.size(); }
+    public int getCallsInFlight() { return maxInFlight - callSlots.availablePermits(); }
+    public long getBatchCount() { return batches.get(); }
+    public long getFailedCallCount() { return failedCalls.get(); }
+    public long getDeclinedCount() { return declined.get(); }
+
+    // Stops taking payments, fails those still queued and waits up to the call timeout
+    // for calls in flight, so their results are delivered before the pool stops
+    public void shutdown() {
+        running = false;
+        batcher.interrupt();
+        try {
+            batcher.join(timeoutMillis);
+            if (callSlots.tryAcquire(maxInFlight, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                callSlots.release(maxInFlight);
+            }
+            callbacks.shutdown();
+            callbacks.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            callbacks.shutdown();
+        }
+    }
+}
@@ -1,8 +1,37 @@
 package com.restaurant;
 
+import java.util.concurrent.CompletableFuture;
+
 // Custom Interface demonstrating Abstraction
 public interface PaymentProcessor {
     boolean processPayment(double amount);
     String getPaymentMethod();
     boolean refund(double amount);
+    
+    // Exact amounts in cents (see Money); the double versions are kept for existing callers
+    default boolean processPaymentCents(long amountCents) {
+        return processPayment(Money.toDollars(amountCents));
+    }
+    
+    default boolean refundCents(long amountCents) {
+        return refund(Money.toDollars(amountCents));
+    }
+    
+    // Non-blocking versions. Processors that call out to a gateway override these (see
+    // PaymentPipeline); the defaults run the synchronous call and return its result
+    default CompletableFuture<Boolean> processPaymentAsync(long amountCents) {
+        try {
+            return CompletableFuture.completedFuture(processPaymentCents(amountCents));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+    
+    default CompletableFuture<Boolean> refundAsync(long amountCents) {
+        try {
+            return CompletableFuture.completedFuture(refundCents(amountCents));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
 }
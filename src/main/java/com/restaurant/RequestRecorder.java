@@ -0,0 +1,145 @@
+package com.restaurant;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+// Records incoming requests to a file, one JSON object per line, for the load harness to
+// replay (benchmarks/LoadHarness --replay):
+//   {"at":1532,"client":"3f9a0c1e","method":"POST","uri":"/api/v2/cart",
+//    "contentType":"application/x-www-form-urlencoded","body":"action=add&itemId=wings"}
+// at is milliseconds since recording started, taken when the request arrived; lines are
+// in completion order. client stands for the caller's address and session cookie, hashed,
+// so a replay can give each recorded client its own session without the log holding
+// either. Lines are written by a background thread, so a request only pays for copying
+// its body. Status streams are left out: they cannot be
+// replayed as a single request and response
+public class RequestRecorder extends Filter implements Closeable {
+    private static final String SHUTDOWN = "";
+
+    private final long start = System.nanoTime();
+    private final Writer out;
+    private final LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<>(100_000);
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+
+    public RequestRecorder(Path file) throws IOException {
+        this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        this.writer = new Thread(this::writeLoop, "request-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (path.startsWith("/api/orders/")) {
+            chain.doFilter(exchange);
+            return;
+        }
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readNBytes(ExchangeBuffers.MAX_BODY + 1);
+        }
+        exchange.setStreams(new ByteArrayInputStream(body), null);
+        long at = (System.nanoTime() - start) / 1_000_000;
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            // Written once the handler has run, so a session the handler just issued is known
+            ResponseBuffer line = new ResponseBuffer();
+            JsonWriter json = new JsonWriter(line);
+            json.beginObject()
+                .name("at").value(at)
+                .name("client").value(clientOf(exchange))
+                .name("method").value(exchange.getRequestMethod())
+                .name("uri").value(exchange.getRequestURI().toString());
+            String type = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (type != null) json.name("contentType").value(type);
+            if (body.length > 0) json.name("body").value(new String(body, StandardCharsets.UTF_8));
+            json.endObject();
+            if (!lines.offer(new String(line.toByteArray(), StandardCharsets.UTF_8))) {
+                dropped.increment();
+            }
+        }
+    }
+
+    // The session the request belongs to, from its cookie or from the cookie the response
+    // sets, hashed with the caller's address
+    private static String clientOf(HttpExchange exchange) {
+        CRC32 crc = new CRC32();
+        String address = exchange.getRemoteAddress().getHostString();
+        crc.update(address.getBytes(StandardCharsets.UTF_8));
+        String session = sessionOf(exchange.getRequestHeaders().get("Cookie"));
+        if (session == null) session = sessionOf(exchange.getResponseHeaders().get("Set-Cookie"));
+        if (session != null) crc.update(session.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    private static String sessionOf(List<String> headers) {
+        if (headers == null) return null;
+        for (String header : headers) {
+            int at = header.indexOf("SESSION=");
+            if (at >= 0) {
+                int end = header.indexOf(';', at);
+                return header.substring(at, end < 0 ? header.length() : end);
+            }
+        }
+        return null;
+    }
+
+    // Writes whatever has queued up, flushing whenever the queue runs dry
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(lines.take());
+                lines.drainTo(batch);
+                for (String line : batch) {
+                    if (line == SHUTDOWN) {
+                        out.flush();
+                        return;
+                    }
+                    out.write(line);
+                    out.write('\n');
+                }
+                batch.clear();
+                out.flush();
+            }
+        } catch (IOException ex) {
+            System.out.println("Request recording stopped: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Requests dropped because the writer fell behind
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lines.put(SHUTDOWN);
+            writer.join(5000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public String description() {
+        return "request recorder";
+    }
+}
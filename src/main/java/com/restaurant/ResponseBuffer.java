@@ -0,0 +1,136 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import com.sun.net.httpserver.HttpExchange;
+
+// Reusable response body: text is UTF-8 encoded straight into a growable byte array and
+// written with one call, with no intermediate Strings, formatters or getBytes copies
+final class ResponseBuffer {
+    private byte[] buf = new byte[512];
+    private int length;
+
+    void reset() {
+        length = 0;
+    }
+
+    int length() {
+        return length;
+    }
+
+    // Drops everything written after the given length
+    void truncate(int newLength) {
+        if (newLength < 0 || newLength > length) {
+            throw new IllegalArgumentException("Invalid length: " + newLength);
+        }
+        length = newLength;
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buf.length) {
+            buf = java.util.Arrays.copyOf(buf, Math.max(length + extra, buf.length * 2));
+        }
+    }
+
+    ResponseBuffer append(char c) {
+        ensure(3);
+        if (c < 0x80) {
+            buf[length++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[length++] = (byte) (0xC0 | (c >> 6));
+            buf[length++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            buf[length++] = (byte) (0xE0 | (c >> 12));
+            buf[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[length++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return this;
+    }
+
+    ResponseBuffer append(CharSequence s) {
+        if (s == null) return append("null");
+        return append(s, 0, s.length());
+    }
+
+    ResponseBuffer append(CharSequence s, int start, int n) {
+        ensure(n - start);
+        for (int i = start; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                ensure(1);
+                buf[length++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buf[length++] = (byte) (0xF0 | (cp >> 18));
+                buf[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[length++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                append(Character.isSurrogate(c) ? '?' : c);
+            }
+        }
+        return this;
+    }
+
+    ResponseBuffer append(long value) {
+        if (value == Long.MIN_VALUE) return append("-9223372036854775808");
+        ensure(20);
+        if (value < 0) {
+            buf[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            buf[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+        return this;
+    }
+
+    // Same text as Money.format, without the String
+    ResponseBuffer appendCents(long cents) {
+        if (cents < 0) {
+            append('-');
+            cents = -cents;
+        }
+        return append('$').appendDecimal(cents);
+    }
+
+    // Cents as a plain decimal number, e.g. 1299 -> 12.99
+    ResponseBuffer appendDecimal(long cents) {
+        if (cents < 0) {
+            append('-');
+            cents = -cents;
+        }
+        append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) append('0');
+        return append(fraction);
+    }
+
+    byte[] toByteArray() {
+        return java.util.Arrays.copyOf(buf, length);
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        os.write(buf, 0, length);
+    }
+
+    void send(HttpExchange e, int status, String contentType) throws IOException {
+        e.getResponseHeaders().set("Content-Type", contentType);
+        e.sendResponseHeaders(status, length == 0 ? -1 : length);
+        try (OutputStream os = e.getResponseBody()) {
+            os.write(buf, 0, length);
+        }
+    }
+}
@@ -2,7 +2,15 @@ package com.restaurant;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.*;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 import com.sun.net.httpserver.*;
 
 /**
@@ -15,54 +23,152 @@ import com.sun.net.httpserver.*;
  * 6. File Handling - Static file serving
  * 7. Exception Handling - Try-catch blocks and validation
  * 8. Collections - HashMap, ArrayList for data management
- * 9. Composition/Aggregation - Order has-a User, Order has-a List<MenuItem>
+ * 9. Composition/Aggregation - Order has-a User, Order has-a list of OrderLines
  */
 public class RestaurantBackend {
     private static OrderManager orderManager = new OrderManager();
-    private static Map<String, MenuItem> menuItems = new HashMap<>();
-    private static int orderCounter = 1;
+    // Current menu snapshot; replaced as a whole, never modified in place
+    private static final AtomicReference<MenuCatalog> menu = new AtomicReference<>(MenuCatalog.empty());
+    private static final OrderIdGenerator orderIds = new OrderIdGenerator(System.getProperty("node"), 1);
+    // Started by main; without it (e.g. in benchmarks) orders simply stay Pending
+    private static volatile KitchenScheduler kitchen;
+    private static volatile OrderStatusStreams streams;
+    // Enforces RestaurantConfig.maxOrdersPerDay once main has installed it
+    private static volatile DailyOrderCap dailyCap;
+    private static volatile PaymentPipeline payments;
+    private static volatile SimulatedPaymentGateway paymentGateway;
+    private static volatile SalesAnalytics analytics;
+    // Set by start when -Dshards lists the nodes orders are split across
+    private static volatile ShardRouter shards;
     
     static {
         // Initialize menu items using Factory Pattern
         initializeMenu();
-        // Add observer
-        orderManager.addObserver(new NotificationService());
+        // Add observer (-Dnotifications=false silences it, e.g. for benchmarks)
+        if (!"false".equals(System.getProperty("notifications"))) {
+            orderManager.addObserver(new NotificationService());
+        }
     }
     
     // Initialize menu using Factory Pattern
     private static void initializeMenu() {
         // Demonstrating Polymorphism - all stored as MenuItem type
-        menuItems.put("wings", MenuItemFactory.createMenuItem("appetizer", "wings", 
-            "Buffalo Wings", 12.99, "Crispy chicken wings with buffalo sauce"));
-        menuItems.put("steak", MenuItemFactory.createMenuItem("main", "steak", 
-            "Grilled Ribeye Steak", 28.99, "Perfectly grilled 12oz ribeye"));
-        menuItems.put("cheese", MenuItemFactory.createMenuItem("dessert", "cheese", 
-            "New York Cheesecake", 7.99, "Classic creamy cheesecake"));
-        menuItems.put("salad", MenuItemFactory.createMenuItem("appetizer", "salad", 
-            "Caesar Salad", 9.99, "Fresh romaine with Caesar dressing"));
+        updateMenu(m -> m
+            .put(MenuItemFactory.createMenuItem("appetizer", "wings",
+                "Buffalo Wings", 12.99, "Crispy chicken wings with buffalo sauce"))
+            .put(MenuItemFactory.createMenuItem("main", "steak",
+                "Grilled Ribeye Steak", 28.99, "Perfectly grilled 12oz ribeye"))
+            .put(MenuItemFactory.createMenuItem("dessert", "cheese",
+                "New York Cheesecake", 7.99, "Classic creamy cheesecake"))
+            .put(MenuItemFactory.createMenuItem("appetizer", "salad",
+                "Caesar Salad", 9.99, "Fresh romaine with Caesar dressing")));
+    }
+    
+    static OrderManager orderManager() {
+        return orderManager;
+    }
+    
+    static MenuCatalog menu() {
+        return menu.get();
+    }
+    
+    // Applies a change to the current snapshot and publishes the result atomically;
+    // retried if another update got in first
+    static MenuCatalog updateMenu(UnaryOperator<MenuCatalog.Builder> change) {
+        while (true) {
+            MenuCatalog current = menu.get();
+            MenuCatalog next = change.apply(current.toBuilder()).build();
+            if (menu.compareAndSet(current, next)) {
+                return next;
+            }
+        }
     }
     
     static class StaticHandler implements HttpHandler {
-        private final String root;
-        public StaticHandler(String root) { this.root = root; }
+        private final StaticAssetCache cache;
+        public StaticHandler(String root) {
+            // Files up to 8 MB, 64 MB in all, are held in memory; each is re-checked on disk
+            // at most once a second
+            this.cache = new StaticAssetCache(root, 8L * 1024 * 1024, 64L * 1024 * 1024, 1000);
+        }
         @Override
         public void handle(HttpExchange e) throws IOException {
+            String method = e.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                e.sendResponseHeaders(405, -1);
+                return;
+            }
             String path = e.getRequestURI().getPath();
             if (path.equals("/")) path = "/index.html";
-            File file = new File(root + path);
-            if (file.exists() && !file.isDirectory()) {
-                String mime = path.endsWith(".html") ? "text/html" :
-                              path.endsWith(".css") ? "text/css" :
-                              path.endsWith(".js") ? "application/javascript" :
-                              path.endsWith(".png") ? "image/png" :
-                              path.endsWith(".jpg") ? "image/jpeg" : "application/octet-stream";
-                e.getResponseHeaders().add("Content-Type", mime);
-                e.sendResponseHeaders(200, file.length());
-                try (OutputStream os = e.getResponseBody(); FileInputStream fis = new FileInputStream(file)) {
-                    fis.transferTo(os);
+            StaticAssetCache.Asset asset = cache.get(path);
+            if (asset == null) {
+                sendUncached(e, path);
+                return;
+            }
+            Headers headers = e.getResponseHeaders();
+            headers.add("ETag", asset.getEtag());
+            headers.add("Last-Modified", asset.getLastModifiedHeader());
+            headers.add("Cache-Control", "no-cache");
+            Headers request = e.getRequestHeaders();
+            if (asset.notModified(request.getFirst("If-None-Match"), request.getFirst("If-Modified-Since"))) {
+                e.sendResponseHeaders(304, -1);
+                e.close();
+                return;
+            }
+            headers.add("Content-Type", asset.getContentType());
+            byte[] content = asset.getContent();
+            if ("HEAD".equals(method)) {
+                headers.add("Content-Length", String.valueOf(content.length));
+                e.sendResponseHeaders(200, -1);
+                e.close();
+                return;
+            }
+            e.sendResponseHeaders(200, content.length == 0 ? -1 : content.length);
+            try (OutputStream os = e.getResponseBody()) {
+                os.write(content);
+            }
+        }
+
+        // Files too large for the cache are streamed from disk on every request, with a
+        // validator from their size and mtime so unchanged ones can still be answered 304
+        private void sendUncached(HttpExchange e, String path) throws IOException {
+            Path file = cache.resolveFile(path);
+            BasicFileAttributes attrs = null;
+            if (file != null) {
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException ex) {
+                    // answered 404 below
                 }
-            } else {
+            }
+            if (attrs == null || !attrs.isRegularFile()) {
                 e.sendResponseHeaders(404, -1);
+                e.close();
+                return;
+            }
+            String etag = StaticAssetCache.weakEtag(attrs);
+            long modified = attrs.lastModifiedTime().toMillis();
+            Headers headers = e.getResponseHeaders();
+            headers.add("ETag", etag);
+            headers.add("Last-Modified", StaticAssetCache.httpDate(modified));
+            headers.add("Cache-Control", "no-cache");
+            Headers request = e.getRequestHeaders();
+            if (StaticAssetCache.notModified(etag, modified,
+                    request.getFirst("If-None-Match"), request.getFirst("If-Modified-Since"))) {
+                e.sendResponseHeaders(304, -1);
+                e.close();
+                return;
+            }
+            headers.add("Content-Type", StaticAssetCache.contentType(path));
+            if ("HEAD".equals(e.getRequestMethod())) {
+                headers.add("Content-Length", String.valueOf(attrs.size()));
+                e.sendResponseHeaders(200, -1);
+                e.close();
+                return;
+            }
+            e.sendResponseHeaders(200, attrs.size() == 0 ? -1 : attrs.size());
+            try (OutputStream os = e.getResponseBody()) {
+                Files.copy(file, os);
             }
         }
     }
@@ -70,9 +176,15 @@ public class RestaurantBackend {
     static class ClaimHandler implements HttpHandler {
         @Override public void handle(HttpExchange e) throws IOException {
             if ("POST".equals(e.getRequestMethod())) {
-                String offerId = parse(e.getRequestURI().getQuery(), "offerId");
-                String resp = "Offer " + (offerId != null ? offerId : "") + " claimed!";
-                send(e, resp);
+                ExchangeBuffers buffers = ExchangeBuffers.acquire();
+                try {
+                    buffers.form.parse(e.getRequestURI().getRawQuery());
+                    String offerId = buffers.form.get("offerId");
+                    buffers.response.append("Offer ").append(offerId != null ? offerId : "").append(" claimed!");
+                    buffers.response.send(e, 200, TEXT);
+                } finally {
+                    ExchangeBuffers.release(buffers);
+                }
             } else e.sendResponseHeaders(405, -1);
         }
     }
@@ -80,38 +192,32 @@ public class RestaurantBackend {
     static class OrderHandler implements HttpHandler {
         @Override public void handle(HttpExchange e) throws IOException {
             if ("POST".equals(e.getRequestMethod())) {
+                ExchangeBuffers buffers = ExchangeBuffers.acquire();
                 try {
-                    String body = read(e);
-                    // Parse order data
-                    String itemId = parse(body, "itemId");
-                    String userName = parse(body, "userName");
-                    String userEmail = parse(body, "userEmail");
-                    
-                    // Data Validation
-                    if (itemId == null || userName == null || userEmail == null) {
-                        send(e, "Error: Missing required fields");
-                        return;
-                    }
-                    
-                    // Demonstrating OOP: Create User, Order, add MenuItem
-                    User customer = new User("U" + orderCounter, userName, userEmail, "1234567890");
-                    Order order = new Order("ORD" + orderCounter++, customer);
-                    
-                    // Get menu item (Polymorphism - could be any MenuItem subclass)
-                    MenuItem item = menuItems.get(itemId);
-                    if (item != null) {
-                        order.addItem(item);
-                        orderManager.addOrder(order); // Observer pattern notifies
-                        
-                        String response = String.format("Order created! %s - Total: $%.2f", 
-                            order.getOrderId(), order.getTotalAmount());
-                        send(e, response);
-                    } else {
-                        send(e, "Error: Item not found");
-                    }
+                    placeOrder(buffers.readForm(e), buffers.response);
+                } catch (DailyOrderCap.LimitReachedException ex) {
+                    ExchangeBuffers.release(buffers);
+                    AdmissionFilter.reject(e, 429, ex.getRetryAfterSeconds(), ex.getMessage());
+                    return;
+                } catch (PaymentPipeline.QueueFullException ex) {
+                    ExchangeBuffers.release(buffers);
+                    AdmissionFilter.reject(e, 503, 1, ex.getMessage());
+                    return;
                 } catch (IllegalArgumentException ex) {
                     // Exception Handling
-                    send(e, "Error: " + ex.getMessage());
+                    buffers.response.reset();
+                    buffers.response.append("Error: ").append(ex.getMessage());
+                } catch (UncheckedIOException ex) {
+                    // Not the client's fault and worth retrying, unlike a validation error
+                    System.out.println(ex.getMessage() + ": " + ex.getCause());
+                    ExchangeBuffers.release(buffers);
+                    AdmissionFilter.reject(e, 503, 1, "Order could not be saved");
+                    return;
+                }
+                try {
+                    buffers.response.send(e, 200, TEXT);
+                } finally {
+                    ExchangeBuffers.release(buffers);
                 }
             } else {
                 e.sendResponseHeaders(405, -1);
@@ -119,60 +225,1284 @@ public class RestaurantBackend {
         }
     }
 
+    // Several orders in one request: one form-encoded order per line of the body,
+    // one result line per order in the response
+    static class BatchOrderHandler implements HttpHandler {
+        @Override public void handle(HttpExchange e) throws IOException {
+            if ("POST".equals(e.getRequestMethod())) {
+                ExchangeBuffers buffers = ExchangeBuffers.acquire();
+                try {
+                    int length = buffers.readBody(e);
+                    byte[] body = buffers.body();
+                    int lineStart = 0;
+                    for (int i = 0; i <= length; i++) {
+                        if (i < length && body[i] != '\n') continue;
+                        int lineEnd = i;
+                        if (lineEnd > lineStart && body[lineEnd - 1] == '\r') lineEnd--;
+                        if (lineEnd > lineStart) {
+                            int mark = buffers.response.length();
+                            try {
+                                buffers.form.parse(body, lineStart, lineEnd - lineStart);
+                                placeOrder(buffers.form, buffers.response);
+                            } catch (IllegalArgumentException | DailyOrderCap.LimitReachedException
+                                     | PaymentPipeline.QueueFullException ex) {
+                                buffers.response.truncate(mark);
+                                buffers.response.append("Error: ").append(ex.getMessage());
+                            } catch (UncheckedIOException ex) {
+                                System.out.println(ex.getMessage() + ": " + ex.getCause());
+                                buffers.response.truncate(mark);
+                                buffers.response.append("Error: Order could not be saved");
+                            }
+                            buffers.response.append('\n');
+                        }
+                        lineStart = i + 1;
+                    }
+                    buffers.response.send(e, 200, TEXT);
+                } catch (IllegalArgumentException ex) {
+                    buffers.response.reset();
+                    buffers.response.append("Error: ").append(ex.getMessage());
+                    buffers.response.send(e, 200, TEXT);
+                } finally {
+                    ExchangeBuffers.release(buffers);
+                }
+            } else {
+                e.sendResponseHeaders(405, -1);
+            }
+        }
+    }
+
+    // Longest userName, userEmail or userPhone an order accepts
+    private static final int MAX_FIELD_LENGTH = 200;
+
+    // Creates and stores one order from form fields: userName, userEmail, optional userPhone,
+    // and one or more itemId fields, each optionally paired with a quantity field (default 1)
+    static Order createOrder(FormData form) {
+        // Parse order data
+        int itemCount = form.count("itemId");
+        int quantityCount = form.count("quantity");
+        
+        // Data Validation
+        if (itemCount == 0 || form.get("userName") == null || form.get("userEmail") == null) {
+            throw new IllegalArgumentException("Missing required fields");
+        }
+        if (quantityCount != 0 && quantityCount != itemCount) {
+            throw new IllegalArgumentException("Each itemId needs a quantity");
+        }
+        // The journal stores each field as a modified-UTF-8 string, which holds under 64 KB
+        for (String field : new String[] {"userName", "userEmail", "userPhone"}) {
+            String value = form.get(field);
+            if (value != null && value.length() > MAX_FIELD_LENGTH) {
+                throw new IllegalArgumentException(field + " must be at most " + MAX_FIELD_LENGTH + " characters");
+            }
+        }
+        
+        // One config snapshot decides both the daily limit and the order's tax rate
+        RestaurantConfig config = RestaurantConfig.getInstance();
+        DailyOrderCap cap = dailyCap;
+        if (cap != null && !cap.tryAcquire(config.getMaxOrdersPerDay())) {
+            throw new DailyOrderCap.LimitReachedException(cap.secondsUntilReset());
+        }
+        // An order whose payment could not be queued is refused before it is stored
+        PaymentPipeline p = payments;
+        boolean reserved = p != null && p.tryReserve();
+        if (p != null && !reserved) {
+            if (cap != null) cap.release();
+            throw new PaymentPipeline.QueueFullException();
+        }
+        Order order;
+        try {
+            order = buildOrder(form, itemCount, config);
+        } catch (RuntimeException ex) {
+            if (cap != null) cap.release();
+            if (reserved) p.cancelReservation();
+            throw ex;
+        }
+        dispatch(order, reserved);
+        return order;
+    }
+
+    // The part of createOrder that runs once the order has been admitted
+    private static Order buildOrder(FormData form, int itemCount, RestaurantConfig config) {
+        String userName = form.get("userName");
+        String userEmail = form.get("userEmail");
+        String userPhone = form.get("userPhone");
+        
+        // Demonstrating OOP: Create User, Order, add MenuItems
+        long orderNumber = orderIds.nextSequence();
+        User customer = new User("U" + orderNumber, userName, userEmail,
+            userPhone != null ? userPhone : "1234567890");
+        Order order = new Order(orderIds.format(orderNumber), customer, LocalDateTime.now(), config);
+        
+        // One snapshot for the whole order, so every line is priced from the same menu
+        MenuCatalog catalog = menu.get();
+        for (int i = 0; i < itemCount; i++) {
+            String itemId = form.get("itemId", i);
+            int ordinal = catalog.resolve(itemId);
+            if (ordinal < 0) {
+                throw new IllegalArgumentException("Item not found: " + itemId);
+            }
+            // Get menu item (Polymorphism - could be any MenuItem subclass)
+            MenuItem item = catalog.item(ordinal);
+            int quantity = form.getInt("quantity", i, 1);
+            if (quantity <= 0 || quantity > Order.MAX_QUANTITY) {
+                throw new IllegalArgumentException("Quantity must be between 1 and " + Order.MAX_QUANTITY);
+            }
+            order.addItem(item, quantity, catalog.priceCents(ordinal));
+        }
+        orderManager.addOrder(order); // Observer pattern notifies
+        return order;
+    }
+
+    // With payments enabled the order reaches the kitchen only once its payment is
+    // authorized, and is cancelled if it is declined or the gateway fails. The request
+    // that created the order does not wait for either. Outcomes are journaled before
+    // they are acted on; Pending is not, so an order recovered as Unpaid or Pending is
+    // authorized again (the gateway reference is the order ID). reserved says a place in
+    // the payment queue was already taken for the order
+    private static void dispatch(Order order, boolean reserved) {
+        PaymentPipeline p = payments;
+        if (p == null || order.getTotalCents() <= 0) {
+            if (reserved) p.cancelReservation();
+            sendToKitchen(order);
+            return;
+        }
+        order.setPaymentStatus("Pending");
+        CompletableFuture<PaymentGateway.Result> payment = reserved
+            ? p.authorizeReserved(order.getOrderId(), "Credit Card", order.getTotalCents())
+            : p.authorize(order.getOrderId(), "Credit Card", order.getTotalCents());
+        payment.whenComplete((result, error) -> {
+            if (error == null && result.isApproved()) {
+                try {
+                    orderManager.updatePaymentStatus(order.getOrderId(), "Authorized");
+                } catch (UncheckedIOException ex) {
+                    // Paid for all the same; after a restart it is authorized again
+                    System.out.println(ex.getMessage() + ": " + ex.getCause());
+                }
+                sendToKitchen(order);
+                return;
+            }
+            System.out.println("Payment for " + order.getOrderId() + " "
+                + (error == null ? result : "failed: " + error));
+            try {
+                orderManager.updatePaymentStatus(order.getOrderId(), error == null ? "Declined" : "Failed");
+                orderManager.updateOrderStatus(order.getOrderId(), "Cancelled");
+            } catch (UncheckedIOException ex) {
+                System.out.println(ex.getMessage() + ": " + ex.getCause());
+            }
+            // An unpaid order does not use up one of the day's orders
+            DailyOrderCap cap = dailyCap;
+            if (cap != null) {
+                cap.release(order.getOrderTime().toLocalDate());
+            }
+        });
+    }
+
+    // True for a recovered order that must not be cooked until it is paid for
+    private static boolean awaitingPayment(Order order) {
+        return payments != null && order.getOrderStatus() == OrderStatus.PENDING
+            && order.getTotalCents() > 0 && !"Authorized".equals(order.getPaymentStatus());
+    }
+
+    // Recovered orders still waiting on their payment: declined or failed ones whose
+    // cancellation was not journaled are cancelled, the rest go back to the gateway
+    private static void resumePayments() {
+        List<Order> waiting = new ArrayList<>();
+        for (Order order : orderManager.getOrdersByStatus("Pending", null, null, Integer.MAX_VALUE)) {
+            if (awaitingPayment(order)) waiting.add(order);
+        }
+        waiting.sort(Comparator.comparing(Order::getOrderTime));
+        for (Order order : waiting) {
+            String paid = order.getPaymentStatus();
+            if ("Declined".equals(paid) || "Failed".equals(paid)) {
+                orderManager.updateOrderStatus(order.getOrderId(), "Cancelled");
+            } else {
+                dispatch(order, false);
+            }
+        }
+    }
+
+    private static void sendToKitchen(Order order) {
+        KitchenScheduler k = kitchen;
+        if (k != null) {
+            k.submit(order);
+        }
+    }
+
+    // createOrder plus the plain-text confirmation line of the v1 API
+    static void placeOrder(FormData form, ResponseBuffer out) {
+        Order order = createOrder(form);
+        out.append("Order created! ").append(order.getOrderId())
+           .append(" - Items: ").append(order.getItemCount())
+           .append(" - Total: ").appendCents(order.getTotalCents());
+    }
+
+    // 32 shards, at most 100k live carts of 50 different items, carts idle for 30 minutes
+    // are dropped
+    private static final SessionCartStore carts =
+        new SessionCartStore(32, Integer.getInteger("cart.maxSessions", 100_000),
+            Integer.getInteger("cart.maxLines", 50),
+            TimeUnit.MINUTES.toMillis(Long.getLong("cart.idleMinutes", 30)));
+
+    // Adds one unit of a menu item, given by ID or display name, under its menu ID
+    private static void addToCart(String sessionId, String itemId) {
+        MenuCatalog catalog = menu.get();
+        int ordinal = catalog.resolve(itemId);
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("Item not found: " + itemId);
+        }
+        carts.addItem(sessionId, catalog.item(ordinal).getId());
+    }
+
+    // Names are resolved as for adding; an ID the menu no longer has removes its stale line
+    private static void removeFromCart(String sessionId, String itemId) {
+        MenuCatalog catalog = menu.get();
+        int ordinal = catalog.resolve(itemId);
+        carts.removeItem(sessionId, ordinal >= 0 ? catalog.item(ordinal).getId() : itemId);
+    }
+    private static final ScheduledExecutorService sweeper =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cart-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+
+    static {
+        sweeper.scheduleWithFixedDelay(carts::evictExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
     static class CartHandler implements HttpHandler {
-        private static final Map<String, Integer> cart = new HashMap<>();
         @Override
         public void handle(HttpExchange e) throws IOException {
-            if ("GET".equals(e.getRequestMethod())) {
-                send(e, "Cart: " + cart);
-            } else if ("POST".equals(e.getRequestMethod())) {
-                String body = read(e);
-                String itemId = parse(body, "itemId");
-                String action = parse(body, "action");
-                if (itemId != null) {
-                    if ("add".equals(action)) {
-                        cart.put(itemId, cart.getOrDefault(itemId, 0) + 1);
-                    } else if ("remove".equals(action)) {
-                        cart.remove(itemId);
-                    }
-                }
-                send(e, "Cart updated: " + cart);
-            } else {
+            String method = e.getRequestMethod();
+            if (!"GET".equals(method) && !"POST".equals(method)) {
                 e.sendResponseHeaders(405, -1);
+                return;
+            }
+            String sessionId = session(e);
+            ExchangeBuffers buffers = ExchangeBuffers.acquire();
+            try {
+                if ("GET".equals(method)) {
+                    buffers.response.append("Cart: ");
+                } else {
+                    FormData form = buffers.readForm(e);
+                    String itemId = form.get("itemId");
+                    if (itemId != null) {
+                        if (form.valueEquals("action", "add")) {
+                            try {
+                                addToCart(sessionId, itemId);
+                            } catch (IllegalArgumentException ex) {
+                                buffers.response.append("Error: ").append(ex.getMessage());
+                                buffers.response.send(e, 200, TEXT);
+                                return;
+                            }
+                        } else if (form.valueEquals("action", "remove")) {
+                            removeFromCart(sessionId, itemId);
+                        }
+                    }
+                    buffers.response.append("Cart updated: ");
+                }
+                carts.describe(sessionId, buffers.response);
+                buffers.response.send(e, 200, TEXT);
+            } finally {
+                ExchangeBuffers.release(buffers);
             }
         }
     }
 
-    private static void send(HttpExchange e, String resp) throws IOException {
-        e.getResponseHeaders().add("Content-Type", "text/plain");
-        e.sendResponseHeaders(200, resp.getBytes().length);
-        e.getResponseBody().write(resp.getBytes());
-        e.getResponseBody().close();
+    // Versioned JSON API:
+    //   GET  /api/v2/menu              whole menu; bytes cached until the catalog changes
+    //   GET  /api/v2/cart              this session's cart with names and prices
+    //   POST /api/v2/cart              itemId + action=add|remove, answers with the cart
+    //   POST /api/v2/order             same fields as /api/order, answers with the order
+    //   GET  /api/v2/order?id=ORD1     one order
+    //   GET  /api/v2/kitchen           kitchen display: per station, what is cooking and what is next
+    //   GET  /api/v2/orders?email=&status=&from=&to=&limit=
+    //                                  orders from the secondary indexes, oldest first; from/to
+    //                                  are ISO date-times or dates, to is exclusive
+    static class ApiV2Handler implements HttpHandler {
+        private static final class CachedMenu {
+            final MenuCatalog catalog;
+            final byte[] json;
+            final String etag;
+            CachedMenu(MenuCatalog catalog, byte[] json) {
+                this.catalog = catalog;
+                this.json = json;
+                this.etag = "\"menu-" + catalog.getVersion() + "\"";
+            }
+        }
+
+        private volatile CachedMenu cachedMenu;
+
+        @Override
+        public void handle(HttpExchange e) throws IOException {
+            String path = e.getRequestURI().getPath();
+            String method = e.getRequestMethod();
+            ExchangeBuffers buffers = ExchangeBuffers.acquire();
+            JsonWriter json = buffers.json();
+            try {
+                if (path.equals("/api/v2/menu")) {
+                    if (!"GET".equals(method)) {
+                        sendError(e, buffers, 405, "Method not allowed");
+                    } else {
+                        sendMenu(e);
+                    }
+                } else if (path.equals("/api/v2/cart")) {
+                    if ("POST".equals(method)) {
+                        FormData form = buffers.readForm(e);
+                        String sessionId = session(e);
+                        String itemId = form.get("itemId");
+                        if (itemId == null) {
+                            sendError(e, buffers, 400, "Missing itemId");
+                            return;
+                        }
+                        if (form.valueEquals("action", "add")) {
+                            try {
+                                addToCart(sessionId, itemId);
+                            } catch (IllegalArgumentException ex) {
+                                sendError(e, buffers, 400, ex.getMessage());
+                                return;
+                            }
+                        } else if (form.valueEquals("action", "remove")) {
+                            removeFromCart(sessionId, itemId);
+                        } else {
+                            sendError(e, buffers, 400, "action must be add or remove");
+                            return;
+                        }
+                        writeCart(json, sessionId);
+                    } else if ("GET".equals(method)) {
+                        writeCart(json, session(e));
+                    } else {
+                        sendError(e, buffers, 405, "Method not allowed");
+                        return;
+                    }
+                    buffers.response.send(e, 200, JSON);
+                } else if (path.equals("/api/v2/order")) {
+                    Order order;
+                    if ("POST".equals(method)) {
+                        order = createOrder(buffers.readForm(e));
+                    } else if ("GET".equals(method)) {
+                        buffers.form.parse(e.getRequestURI().getRawQuery());
+                        order = orderManager.getOrder(buffers.form.get("id"));
+                        if (order == null) {
+                            sendError(e, buffers, 404, "Order not found");
+                            return;
+                        }
+                    } else {
+                        sendError(e, buffers, 405, "Method not allowed");
+                        return;
+                    }
+                    writeOrder(json, order);
+                    buffers.response.send(e, "POST".equals(method) ? 201 : 200, JSON);
+                } else if (path.equals("/api/v2/orders")) {
+                    if (!"GET".equals(method)) {
+                        sendError(e, buffers, 405, "Method not allowed");
+                        return;
+                    }
+                    buffers.form.parse(e.getRequestURI().getRawQuery());
+                    ShardRouter s = shards;
+                    if (s != null && !s.isFromPeer(e)) {
+                        writeOrdersFromAllShards(json, buffers.form, s, e);
+                    } else {
+                        writeOrders(json, buffers.form);
+                    }
+                    buffers.response.send(e, 200, JSON);
+                } else if (path.equals("/api/v2/order/status")) {
+                    // Front of house: POST id and status, e.g. status=Delivered or Cancelled
+                    if (!"POST".equals(method)) {
+                        sendError(e, buffers, 405, "Method not allowed");
+                        return;
+                    }
+                    FormData form = buffers.readForm(e);
+                    String id = form.get("id");
+                    if (id == null || form.get("status") == null) {
+                        sendError(e, buffers, 400, "Missing id or status");
+                        return;
+                    }
+                    OrderStatus next = OrderStatus.parse(form.get("status"));
+                    Order order = orderManager.getOrder(id);
+                    if (order == null) {
+                        sendError(e, buffers, 404, "Order not found");
+                        return;
+                    }
+                    orderManager.updateOrderStatus(id, next.getLabel());
+                    // An archived order is finished and no longer changes
+                    order = orderManager.getOrder(id);
+                    if (order == null || order.getOrderStatus() != next) {
+                        throw new IllegalStateException("Order " + id + " cannot go from "
+                            + (order != null ? order.getStatus() : "Removed") + " to " + next.getLabel());
+                    }
+                    writeOrder(json, order);
+                    buffers.response.send(e, 200, JSON);
+                } else if (path.equals("/api/v2/orders/next")) {
+                    // The order that has waited longest in a status (Ready by default)
+                    if (!"GET".equals(method)) {
+                        sendError(e, buffers, 405, "Method not allowed");
+                        return;
+                    }
+                    buffers.form.parse(e.getRequestURI().getRawQuery());
+                    String status = buffers.form.get("status");
+                    OrderStatus wanted = status != null ? OrderStatus.parse(status) : OrderStatus.READY;
+                    Order order = orderManager.getOldestOrder(wanted);
+                    if (order == null) {
+                        sendError(e, buffers, 404, "No " + wanted.getLabel() + " orders");
+                        return;
+                    }
+                    writeOrder(json, order);
+                    buffers.response.send(e, 200, JSON);
+                } else if (path.equals("/api/v2/kitchen")) {
+                    KitchenScheduler k = kitchen;
+                    if (!"GET".equals(method)) {
+                        sendError(e, buffers, 405, "Method not allowed");
+                    } else if (k == null) {
+                        sendError(e, buffers, 503, "Kitchen not running");
+                    } else {
+                        writeKitchen(json, k);
+                        buffers.response.send(e, 200, JSON);
+                    }
+                } else {
+                    sendError(e, buffers, 404, "Not found");
+                }
+            } catch (IllegalArgumentException ex) {
+                sendError(e, buffers, 400, ex.getMessage());
+            } catch (DailyOrderCap.LimitReachedException ex) {
+                e.getResponseHeaders().set("Retry-After", String.valueOf(ex.getRetryAfterSeconds()));
+                sendError(e, buffers, 429, ex.getMessage());
+            } catch (PaymentPipeline.QueueFullException ex) {
+                e.getResponseHeaders().set("Retry-After", "1");
+                sendError(e, buffers, 503, ex.getMessage());
+            } catch (IllegalStateException ex) {
+                sendError(e, buffers, 409, ex.getMessage());
+            } catch (UncheckedIOException ex) {
+                System.out.println(ex.getMessage() + ": " + ex.getCause());
+                sendError(e, buffers, 503, "Order could not be saved");
+            } finally {
+                ExchangeBuffers.release(buffers);
+            }
+        }
+
+        private void sendMenu(HttpExchange e) throws IOException {
+            MenuCatalog catalog = menu.get();
+            CachedMenu cached = cachedMenu;
+            if (cached == null || cached.catalog != catalog) {
+                cached = new CachedMenu(catalog, serializeMenu(catalog));
+                cachedMenu = cached;
+            }
+            e.getResponseHeaders().set("ETag", cached.etag);
+            if (cached.etag.equals(e.getRequestHeaders().getFirst("If-None-Match"))) {
+                e.sendResponseHeaders(304, -1);
+                e.close();
+                return;
+            }
+            e.getResponseHeaders().set("Content-Type", JSON);
+            e.sendResponseHeaders(200, cached.json.length);
+            try (OutputStream os = e.getResponseBody()) {
+                os.write(cached.json);
+            }
+        }
+
+        static byte[] serializeMenu(MenuCatalog catalog) {
+            ResponseBuffer out = new ResponseBuffer();
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject().name("version").value(catalog.getVersion()).name("items").beginArray();
+            for (int i = 0; i < catalog.size(); i++) {
+                MenuItem item = catalog.item(i);
+                json.beginObject()
+                    .name("id").value(item.getId())
+                    .name("name").value(item.getName())
+                    .name("type").value(item.getItemType())
+                    .name("category").value(catalog.category(i))
+                    .name("description").value(item.getDescription())
+                    .name("price").cents(catalog.priceCents(i))
+                    .name("priceCents").value(catalog.priceCents(i))
+                    .name("vegetarian").value(catalog.hasFlag(i, MenuCatalog.VEGETARIAN))
+                    .name("containsNuts").value(catalog.hasFlag(i, MenuCatalog.CONTAINS_NUTS))
+                    .endObject();
+            }
+            json.endArray().endObject();
+            return out.toByteArray();
+        }
+
+        // Lines for items taken off the menu since they were added are listed without name or price
+        private static void writeCart(JsonWriter json, String sessionId) {
+            MenuCatalog catalog = menu.get();
+            long[] totals = new long[2]; // units, subtotal cents
+            json.beginObject().name("items").beginArray();
+            carts.visit(sessionId, (itemId, quantity) -> {
+                json.beginObject().name("id").value(itemId).name("quantity").value(quantity);
+                int ordinal = catalog.resolve(itemId);
+                if (ordinal >= 0) {
+                    long price = catalog.priceCents(ordinal);
+                    json.name("name").value(catalog.item(ordinal).getName())
+                        .name("price").cents(price)
+                        .name("lineTotal").cents(price * quantity);
+                    totals[1] += price * quantity;
+                }
+                json.endObject();
+                totals[0] += quantity;
+            });
+            json.endArray()
+                .name("count").value(totals[0])
+                .name("subtotal").cents(totals[1])
+                .endObject();
+        }
+
+        static void writeOrder(JsonWriter json, Order order) {
+            json.beginObject()
+                .name("orderId").value(order.getOrderId())
+                .name("status").value(order.getStatus())
+                .name("payment").value(order.getPaymentStatus())
+                .name("orderTime").value(order.getOrderTime().toString())
+                .name("customer").beginObject()
+                    .name("name").value(order.getCustomer().getName())
+                    .name("email").value(order.getCustomer().getEmail())
+                .endObject()
+                .name("items").beginArray();
+            for (OrderLine line : order.getLines()) {
+                json.beginObject()
+                    .name("id").value(line.getItem().getId())
+                    .name("name").value(line.getItem().getName())
+                    .name("quantity").value(line.getQuantity())
+                    .name("unitPrice").cents(line.getUnitPriceCents())
+                    .name("lineTotal").cents(line.getLineTotalCents())
+                    .endObject();
+            }
+            json.endArray()
+                .name("itemCount").value(order.getItemCount())
+                .name("subtotal").cents(order.getSubtotalCents())
+                .name("tax").cents(order.getTaxCents())
+                .name("total").cents(order.getTotalCents())
+                .endObject();
+        }
+
+        private static final int DEFAULT_QUERY_LIMIT = 100;
+        private static final int MAX_QUERY_LIMIT = 1000;
+
+        // Picks the narrowest index for the filters given and applies the others to its result
+        private static void writeOrders(JsonWriter json, FormData query) {
+            int limit = queryLimit(query);
+            // One extra tells us whether the result was cut short
+            List<Order> orders = queryOrders(query, limit + 1);
+            boolean truncated = orders.size() > limit;
+            json.beginObject().name("orders").beginArray();
+            for (int i = 0; i < orders.size() && i < limit; i++) {
+                writeOrder(json, orders.get(i));
+            }
+            json.endArray()
+                .name("count").value(Math.min(orders.size(), limit))
+                .name("truncated").value(truncated)
+                .endObject();
+        }
+
+        // The same query answered by every shard and merged oldest first. Other shards'
+        // orders are passed on as they wrote them. A shard that does not answer is listed
+        // under unavailableShards, and the result is then marked truncated
+        private static void writeOrdersFromAllShards(JsonWriter json, FormData query, ShardRouter router,
+                                                     HttpExchange e) {
+            int limit = queryLimit(query);
+            List<Order> local = queryOrders(query, limit + 1);
+            boolean truncated = local.size() > limit;
+            // Each value is an Order of ours or another shard's JSON for one
+            TreeMap<OrderIndex.Key, Object> merged = new TreeMap<>();
+            for (int i = 0; i < local.size() && i < limit; i++) {
+                Order order = local.get(i);
+                merged.put(new OrderIndex.Key(OrderIndex.timeOf(order.getOrderTime()), order.getOrderId()), order);
+            }
+            List<String> unavailable = new ArrayList<>();
+            for (ShardRouter.Reply reply : router.gather(e)) {
+                if (!reply.isOk()) {
+                    unavailable.add(reply.getNode());
+                    continue;
+                }
+                truncated |= reply.getBody().contains("\"truncated\":true");
+                for (String order : ShardRouter.arrayElements(reply.getBody(), "orders")) {
+                    String id = ShardRouter.stringField(order, "orderId");
+                    String time = ShardRouter.stringField(order, "orderTime");
+                    if (id == null || time == null) continue;
+                    merged.put(new OrderIndex.Key(OrderIndex.timeOf(LocalDateTime.parse(time)), id), order);
+                }
+            }
+            json.beginObject().name("orders").beginArray();
+            int written = 0;
+            for (Object order : merged.values()) {
+                if (written++ == limit) break;
+                if (order instanceof Order) {
+                    writeOrder(json, (Order) order);
+                } else {
+                    json.raw((String) order);
+                }
+            }
+            json.endArray()
+                .name("count").value(Math.min(merged.size(), limit))
+                .name("truncated").value(truncated || merged.size() > limit || !unavailable.isEmpty());
+            if (!unavailable.isEmpty()) {
+                json.name("unavailableShards").beginArray();
+                for (String node : unavailable) {
+                    json.value(node);
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+
+        private static int queryLimit(FormData query) {
+            int limit = query.getInt("limit", 0, DEFAULT_QUERY_LIMIT);
+            if (limit <= 0 || limit > MAX_QUERY_LIMIT) {
+                throw new IllegalArgumentException("limit must be between 1 and " + MAX_QUERY_LIMIT);
+            }
+            return limit;
+        }
+
+        // Up to max orders matching email, status, from and to, oldest first
+        private static List<Order> queryOrders(FormData query, int max) {
+            String email = query.get("email");
+            String status = query.get("status");
+            LocalDateTime from = parseTime(query.get("from"), "from");
+            LocalDateTime to = parseTime(query.get("to"), "to");
+            if (email != null) {
+                List<Order> orders = orderManager.getOrdersByCustomer(email, from, to,
+                    status != null ? Integer.MAX_VALUE : max);
+                if (status != null) {
+                    orders.removeIf(o -> !o.getStatus().equalsIgnoreCase(status));
+                    if (orders.size() > max) orders = new ArrayList<>(orders.subList(0, max));
+                }
+                return orders;
+            } else if (status != null) {
+                return orderManager.getOrdersByStatus(status, from, to, max);
+            }
+            return orderManager.getOrdersBetween(from, to, max);
+        }
+
+        private static LocalDateTime parseTime(String value, String name) {
+            if (value == null || value.isEmpty()) return null;
+            try {
+                return value.length() == 10
+                    ? java.time.LocalDate.parse(value).atStartOfDay()
+                    : LocalDateTime.parse(value);
+            } catch (java.time.format.DateTimeParseException ex) {
+                throw new IllegalArgumentException(name + " must be an ISO date or date-time");
+            }
+        }
+
+        static void writeKitchen(JsonWriter json, KitchenScheduler k) {
+            json.beginObject()
+                .name("cooksPerStation").value(k.getCooksPerStation())
+                .name("completed").value(k.getCompletedCount())
+                .name("skipped").value(k.getSkippedCount())
+                .name("stolen").value(k.getStolenCount())
+                .name("stations").beginArray();
+            for (KitchenScheduler.StationView view : k.snapshot()) {
+                json.beginObject().name("station").value(view.getStation().name().toLowerCase());
+                json.name("cooking");
+                writeTickets(json, view.getCooking());
+                json.name("queued");
+                writeTickets(json, view.getQueued());
+                json.endObject();
+            }
+            json.endArray().endObject();
+        }
+
+        private static void writeTickets(JsonWriter json, List<KitchenScheduler.Ticket> tickets) {
+            json.beginArray();
+            for (KitchenScheduler.Ticket t : tickets) {
+                json.beginObject()
+                    .name("orderId").value(t.getOrderId())
+                    .name("itemId").value(t.getItemId())
+                    .name("name").value(t.getItemName())
+                    .name("quantity").value(t.getQuantity())
+                    .name("prepMinutes").value(t.getPrepMinutes())
+                    .name("startBy").value(t.getLatestStart())
+                    .name("promisedAt").value(t.getPromisedAt())
+                    .endObject();
+            }
+            json.endArray();
+        }
+
+        static void sendError(HttpExchange e, ExchangeBuffers buffers, int status, String message)
+                throws IOException {
+            buffers.response.reset();
+            buffers.json().beginObject().name("error").value(message).endObject();
+            buffers.response.send(e, status, JSON);
+        }
     }
 
-    private static String read(HttpExchange e) throws IOException {
-        try (var br = new BufferedReader(new InputStreamReader(e.getRequestBody()))) {
-            return br.lines().collect(java.util.stream.Collectors.joining());
+    // GET /api/orders/{id}/events: Server-Sent Events stream of the order's status
+    static class OrderEventsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange e) throws IOException {
+            String path = e.getRequestURI().getPath();
+            String prefix = "/api/orders/";
+            String suffix = "/events";
+            if (!path.startsWith(prefix) || !path.endsWith(suffix)
+                    || path.length() <= prefix.length() + suffix.length()) {
+                e.sendResponseHeaders(404, -1);
+                e.close();
+                return;
+            }
+            if (!"GET".equals(e.getRequestMethod())) {
+                e.sendResponseHeaders(405, -1);
+                e.close();
+                return;
+            }
+            String orderId = path.substring(prefix.length(), path.length() - suffix.length());
+            OrderStatusStreams s = streams;
+            if (s == null || orderManager.getOrder(orderId) == null) {
+                e.sendResponseHeaders(s == null ? 503 : 404, -1);
+                e.close();
+                return;
+            }
+            if (!s.subscribe(orderId, e)) {
+                e.getResponseHeaders().set("Retry-After", "5");
+                e.sendResponseHeaders(503, -1);
+                e.close();
+            }
         }
     }
 
-    private static String parse(String query, String key) {
-        if (query == null) return null;
-        for (String p : query.split("&")) {
-            String[] kv = p.split("=");
-            if (kv.length > 1 && kv[0].equals(key)) return kv[1];
+    // GET /api/stats?window=15m&limit=10: units and revenue by item and by category over
+    // the last window (s, m, h or d; 15m by default), answered from SalesAnalytics
+    static class StatsHandler implements HttpHandler {
+        private static final int DEFAULT_LIMIT = 20;
+
+        @Override
+        public void handle(HttpExchange e) throws IOException {
+            ExchangeBuffers buffers = ExchangeBuffers.acquire();
+            try {
+                SalesAnalytics a = analytics;
+                if (!"GET".equals(e.getRequestMethod())) {
+                    ApiV2Handler.sendError(e, buffers, 405, "Method not allowed");
+                    return;
+                }
+                if (a == null) {
+                    ApiV2Handler.sendError(e, buffers, 503, "Analytics not running");
+                    return;
+                }
+                buffers.form.parse(e.getRequestURI().getRawQuery());
+                String window = buffers.form.get("window");
+                SalesAnalytics.Report report;
+                try {
+                    int limit = buffers.form.getInt("limit", 0, DEFAULT_LIMIT);
+                    if (limit <= 0) {
+                        throw new IllegalArgumentException("limit must be positive");
+                    }
+                    report = a.report(parseWindow(window != null ? window : "15m"),
+                        System.currentTimeMillis(), limit);
+                } catch (IllegalArgumentException ex) {
+                    ApiV2Handler.sendError(e, buffers, 400, ex.getMessage());
+                    return;
+                }
+                writeStats(buffers.json(), window != null ? window : "15m", report,
+                    orderManager.getEventBus().getDroppedCount(a));
+                buffers.response.send(e, 200, JSON);
+            } finally {
+                ExchangeBuffers.release(buffers);
+            }
+        }
+
+        // A count and a unit, e.g. 90s, 15m, 6h, 7d
+        static long parseWindow(String window) {
+            int n = window.length();
+            if (n < 2) {
+                throw new IllegalArgumentException("window must be a number followed by s, m, h or d");
+            }
+            long unit;
+            switch (window.charAt(n - 1)) {
+                case 's': unit = 1000L; break;
+                case 'm': unit = 60_000L; break;
+                case 'h': unit = 3_600_000L; break;
+                case 'd': unit = 86_400_000L; break;
+                default:
+                    throw new IllegalArgumentException("window must be a number followed by s, m, h or d");
+            }
+            try {
+                return Math.multiplyExact(Long.parseLong(window.substring(0, n - 1)), unit);
+            } catch (NumberFormatException | ArithmeticException ex) {
+                throw new IllegalArgumentException("Invalid window: " + window);
+            }
+        }
+
+        // droppedEvents counts order events analytics never saw; anything above 0 means
+        // the figures are short
+        private static void writeStats(JsonWriter json, String window, SalesAnalytics.Report report,
+                                       long droppedEvents) {
+            json.beginObject()
+                .name("window").value(window)
+                .name("resolution").value(report.getResolution().name().toLowerCase())
+                .name("coveredSeconds").value(report.getCoveredMillis() / 1000)
+                .name("orders").value(report.getOrders())
+                .name("revenue").cents(report.getRevenueCents())
+                .name("droppedEvents").value(droppedEvents)
+                .name("items").beginArray();
+            for (SalesAnalytics.Line line : report.getItems()) {
+                json.beginObject()
+                    .name("id").value(line.getKey())
+                    .name("name").value(line.getName())
+                    .name("category").value(line.getCategory())
+                    .name("units").value(line.getUnits())
+                    .name("revenue").cents(line.getRevenueCents())
+                    .endObject();
+            }
+            json.endArray().name("categories").beginArray();
+            for (SalesAnalytics.Line line : report.getCategories()) {
+                json.beginObject()
+                    .name("category").value(line.getKey())
+                    .name("units").value(line.getUnits())
+                    .name("revenue").cents(line.getRevenueCents())
+                    .endObject();
+            }
+            json.endArray().endObject();
+        }
+    }
+
+    static final String TEXT = "text/plain; charset=utf-8";
+    static final String JSON = "application/json; charset=utf-8";
+    private static final String SESSION_COOKIE = "SESSION=";
+    private static final java.security.SecureRandom random = new java.security.SecureRandom();
+
+    // Returns the caller's session ID, issuing a new cookie if there is no valid one
+    private static String session(HttpExchange e) {
+        String existing = existingSession(e);
+        if (existing != null) {
+            return existing;
+        }
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        char[] id = new char[32];
+        for (int i = 0; i < 16; i++) {
+            id[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            id[2 * i + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        String sessionId = new String(id);
+        e.getResponseHeaders().add("Set-Cookie",
+            SESSION_COOKIE + sessionId + "; Path=/; HttpOnly; SameSite=Lax");
+        return sessionId;
+    }
+
+    // The session ID from the request's cookie, or null if it carries no valid one
+    private static String existingSession(HttpExchange e) {
+        List<String> headers = e.getRequestHeaders().get("Cookie");
+        if (headers != null) {
+            for (String header : headers) {
+                int at = header.indexOf(SESSION_COOKIE);
+                while (at >= 0) {
+                    int start = at + SESSION_COOKIE.length();
+                    if ((at == 0 || header.charAt(at - 1) == ' ' || header.charAt(at - 1) == ';')
+                            && isSessionId(header, start)) {
+                        return header.substring(start, start + 32);
+                    }
+                    at = header.indexOf(SESSION_COOKIE, start);
+                }
+            }
         }
         return null;
     }
 
+    // 32 lowercase hex digits, ending the header or followed by ';'
+    private static boolean isSessionId(String header, int start) {
+        int end = start + 32;
+        if (end > header.length() || (end < header.length() && header.charAt(end) != ';')) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = header.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    static void send(HttpExchange e, String resp) throws IOException {
+        ExchangeBuffers buffers = ExchangeBuffers.acquire();
+        try {
+            buffers.response.append(resp).send(e, 200, TEXT);
+        } finally {
+            ExchangeBuffers.release(buffers);
+        }
+    }
+
+    private static final Metrics metrics = new Metrics();
+
+    // The endpoints that place orders
+    static final Set<String> ORDER_CREATE_PATHS = Set.of("/api/order", "/api/order/batch", "/api/v2/order");
+
+    // Per-client rate (-Dadmission.rate per second, -Dadmission.burst) and an adaptive cap on
+    // order requests in flight (-Dadmission.maxConcurrency) in front of every order endpoint
+    private static final ClientRateLimiter clientRates = new ClientRateLimiter(
+        Double.parseDouble(System.getProperty("admission.rate", "5")),
+        Integer.getInteger("admission.burst", 20));
+    private static final ConcurrencyLimiter orderConcurrency = new ConcurrencyLimiter(
+        20, 4, Integer.getInteger("admission.maxConcurrency", 200), 2.0, 0.9, 1000);
+    private static final AdmissionFilter admission = new AdmissionFilter(clientRates, orderConcurrency,
+        e -> "POST".equals(e.getRequestMethod()) && !e.getRequestURI().getPath().startsWith("/api/v2/cart")
+            && !forwardedByPeer(e));
+
+    // Admitted by the node the client talked to already
+    private static boolean forwardedByPeer(HttpExchange e) {
+        ShardRouter s = shards;
+        return s != null && s.isFromPeer(e);
+    }
+
+    // Order submissions replayed by Idempotency-Key for -Didempotency.ttlMinutes (24h),
+    // within -Didempotency.maxBytes (16 MB) of remembered responses
+    private static final IdempotencyCache idempotencyKeys = new IdempotencyCache(16,
+        Long.getLong("idempotency.maxBytes", 16L * 1024 * 1024),
+        TimeUnit.MINUTES.toMillis(Long.getLong("idempotency.ttlMinutes", 24 * 60)));
+    private static final IdempotencyFilter idempotency = new IdempotencyFilter(idempotencyKeys, 5000,
+        e -> ORDER_CREATE_PATHS.contains(e.getRequestURI().getPath()), RestaurantBackend::idempotencyScope);
+
+    // Keys are scoped to the endpoint, and on the cart to the session too, since one
+    // client's cart key says nothing about another's cart. A cart request without a
+    // session starts a new one, so there is nothing for a retry to replay
+    private static String idempotencyScope(HttpExchange e) {
+        String path = e.getRequestURI().getPath();
+        if (!path.equals("/api/v2/cart")) {
+            return path;
+        }
+        String sessionId = existingSession(e);
+        return sessionId != null ? path + ' ' + sessionId : null;
+    }
+
+    static {
+        sweeper.scheduleWithFixedDelay(clientRates::evictIdle, 1, 1, TimeUnit.MINUTES);
+        sweeper.scheduleWithFixedDelay(idempotencyKeys::evictExpired, 1, 1, TimeUnit.MINUTES);
+    }
+
+    // Replays are answered before admission control, so a retry storm costs no order capacity
+    private static void guardOrders(HttpContext context) {
+        context.getFilters().add(idempotency);
+        context.getFilters().add(admission);
+        if (shards != null) context.getFilters().add(shards);
+    }
+
+    // Every context is wrapped in a metrics filter under the given handler name, and
+    // in the request recorder when recording
+    private static HttpContext route(HttpServer server, String path, String name, HttpHandler handler) {
+        HttpContext context = server.createContext(path, handler);
+        context.getFilters().add(metrics.filter(name));
+        if (recorder != null) context.getFilters().add(recorder);
+        return context;
+    }
+
+    private static void registerGauges(ExecutorService executor) {
+        metrics.gauge("orders_in_memory", "Orders held by OrderManager", orderManager::getOrderCount);
+        OrderArchive archive = orderManager.getArchive();
+        if (archive != null) {
+            metrics.gauge("orders_archived", "Finished orders moved to the archive", archive::size);
+            metrics.gauge("archive_segment_bytes", "Off-heap bytes of archived order records",
+                archive::getBytesUsed);
+            metrics.gauge("archive_table_bytes", "Heap held by the archive's ID table", archive::getTableBytes);
+        }
+        metrics.gauge("cart_sessions", "Live cart sessions", carts::size);
+        metrics.gauge("menu_version", "Current menu catalog version", () -> menu.get().getVersion());
+        metrics.gauge("observer_events_dropped", "Order events dropped for full observer buffers",
+            () -> orderManager.getEventBus().getDroppedCount());
+        metrics.gaugeFamily("kitchen_queue_depth", "station", "Tickets waiting at each kitchen station",
+            () -> kitchen.getQueueDepths());
+        metrics.gauge("kitchen_tickets_stolen", "Tickets cooked by another station's cook",
+            () -> kitchen.getStolenCount());
+        metrics.gauge("sse_subscribers", "Open order status streams", () -> streams.getSubscriberCount());
+        metrics.gauge("sse_dropped_slow", "Status streams closed for falling behind",
+            () -> streams.getDroppedSlowCount());
+        metrics.gaugeFamily("orders_by_status", "status", "Orders in memory by status", () -> {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (OrderStatus status : OrderStatus.values()) {
+                counts.put(status.getLabel(), orderManager.getOrderCount(status));
+            }
+            return counts;
+        });
+        metrics.gauge("config_version", "RestaurantConfig snapshot in force",
+            () -> RestaurantConfig.getInstance().getVersion());
+        metrics.gauge("orders_today", "Orders accepted since midnight", () -> dailyCap.getCountToday());
+        metrics.gauge("orders_daily_limit", "RestaurantConfig.maxOrdersPerDay", () -> dailyCap.getLimit());
+        metrics.gauge("admission_rejected_rate", "Order requests refused with 429 for client rate",
+            admission::getRateLimitedCount);
+        metrics.gauge("admission_rejected_busy", "Order requests refused with 503 at the concurrency limit",
+            admission::getOverloadedCount);
+        metrics.gauge("admission_concurrency_limit", "Current adaptive limit on order requests in flight",
+            orderConcurrency::getLimit);
+        metrics.gauge("admission_in_flight", "Order requests in flight", orderConcurrency::getInFlight);
+        ShardRouter s = shards;
+        if (s != null) {
+            metrics.gauge("shard_forwarded_requests", "Requests answered by another shard", s::getForwardedCount);
+            metrics.gauge("shard_forward_failures", "Calls to another shard that got no answer", s::getFailureCount);
+        }
+        if (payments != null) {
+            metrics.gauge("payments_queued", "Payments waiting for a gateway call", payments::getQueued);
+            metrics.gauge("payments_calls_in_flight", "Gateway calls outstanding", payments::getCallsInFlight);
+            metrics.gauge("payments_batches", "Gateway calls made", payments::getBatchCount);
+            metrics.gauge("payments_failed_calls", "Gateway calls that failed or timed out",
+                payments::getFailedCallCount);
+            metrics.gauge("payments_declined", "Payments declined by the gateway", payments::getDeclinedCount);
+        }
+        metrics.gauge("idempotency_keys", "Idempotency keys remembered", idempotencyKeys::size);
+        metrics.gauge("idempotency_bytes", "Estimated memory held by remembered responses",
+            idempotencyKeys::bytes);
+        metrics.gauge("idempotency_replayed", "Requests answered from a remembered response",
+            idempotency::getReplayedCount);
+        metrics.gaugeFamily("observer_lag_events", "observer", "Order events queued but not yet delivered",
+            () -> orderManager.getEventBus().getLag());
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            metrics.gauge("executor_queue_depth", "Exchanges waiting for a worker", () -> pool.getQueue().size());
+            metrics.gauge("executor_active_threads", "Workers running an exchange", pool::getActiveCount);
+        }
+    }
+
+    // Prometheus text exposition of Metrics
+    static class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange e) throws IOException {
+            if (!"GET".equals(e.getRequestMethod())) {
+                e.sendResponseHeaders(405, -1);
+                return;
+            }
+            ExchangeBuffers buffers = ExchangeBuffers.acquire();
+            try {
+                metrics.writePrometheus(buffers.response);
+                buffers.response.send(e, 200, "text/plain; version=0.0.4; charset=utf-8");
+            } finally {
+                ExchangeBuffers.release(buffers);
+            }
+        }
+    }
+
+    // Replays the journal into orderManager, then journals every new change.
+    // -Djournal=<file> picks the log file, -Djournal=off disables it
+    private static OrderJournal openJournal() throws IOException {
+        // Nodes of a sharded setup often share a working directory
+        String file = System.getProperty("journal",
+            shards != null ? "orders-" + shards.getSelf() + ".journal" : "orders.journal");
+        if (file.isEmpty() || "off".equals(file)) return null;
+        OrderJournal journal = new OrderJournal(Path.of(file), orderManager.recovery(id -> menu.get().get(id)));
+        for (Order order : orderManager.getAllOrders()) {
+            orderIds.observe(order.getOrderId());
+        }
+        orderManager.setJournal(journal);
+        System.out.println("Recovered " + orderManager.getOrderCount() + " orders from " + file);
+        return journal;
+    }
+
+    // -Dconfig names the settings file (config/restaurant.properties); it is loaded now
+    // and again whenever it changes. -Dorders.maxPerDay overrides the file's cap; 0 turns
+    // it off. Without the file the built-in defaults apply
+    private static ConfigWatcher watchConfig() throws IOException {
+        Path file = Path.of(System.getProperty("config", "config/restaurant.properties"));
+        if (Files.exists(file)) {
+            ConfigWatcher.reload(file);
+        } else {
+            Integer maxPerDay = Integer.getInteger("orders.maxPerDay");
+            if (maxPerDay != null) {
+                RestaurantConfig.update(c -> c.withMaxOrdersPerDay(maxPerDay));
+            }
+        }
+        Path dir = file.toAbsolutePath().getParent();
+        return dir != null && Files.isDirectory(dir) ? new ConfigWatcher(file) : null;
+    }
+
+    // Orders recovered from the journal that were placed today still count against the
+    // cap, except those whose payment was declined or failed (see dispatch)
+    private static void countTodaysOrders(DailyOrderCap cap) {
+        LocalDateTime midnight = java.time.LocalDate.now().atStartOfDay();
+        for (Order order : orderManager.getOrdersBetween(midnight, null, Integer.MAX_VALUE)) {
+            String paid = order.getPaymentStatus();
+            if (!"Declined".equals(paid) && !"Failed".equals(paid)) {
+                cap.tryAcquire();
+            }
+        }
+    }
+
+    // -Dkitchen.cooks per station, -Dkitchen.speed (kitchen minutes per real minute) and
+    // -Dkitchen.slackMinutes on top of the longest dish. Orders recovered from the
+    // journal that never reached Ready go back on the line, unless they are still
+    // waiting on their payment (see resumePayments)
+    private static KitchenScheduler startKitchen() {
+        KitchenScheduler k = new KitchenScheduler(orderManager,
+            Integer.getInteger("kitchen.cooks", 2),
+            Double.parseDouble(System.getProperty("kitchen.speed", "60")),
+            Long.getLong("kitchen.slackMinutes", 5));
+        List<Order> unfinished = new ArrayList<>(
+            orderManager.getOrdersByStatus("Pending", null, null, Integer.MAX_VALUE));
+        unfinished.addAll(orderManager.getOrdersByStatus("Preparing", null, null, Integer.MAX_VALUE));
+        unfinished.sort(Comparator.comparing(Order::getOrderTime));
+        for (Order order : unfinished) {
+            if (!awaitingPayment(order)) k.submit(order);
+        }
+        k.start();
+        return k;
+    }
+
+    // -Dpayments=sim (default) authorizes every order through a simulated gateway,
+    // -Dpayments=off sends orders straight to the kitchen. The simulator takes
+    // -Dpayments.latencyMillis, .jitterMillis, .failureRate and .declineRate; the pipeline
+    // takes -Dpayments.maxBatch, .lingerMillis, .maxInFlight, .timeoutMillis and
+    // .queueCapacity, past which new orders are refused with 503
+    private static PaymentPipeline startPayments() {
+        String mode = System.getProperty("payments", "sim");
+        if ("off".equals(mode)) return null;
+        if (!"sim".equals(mode)) {
+            throw new IllegalArgumentException("Unknown payments mode: " + mode);
+        }
+        SimulatedPaymentGateway gateway = new SimulatedPaymentGateway(
+            Long.getLong("payments.latencyMillis", 150), 200,
+            Long.getLong("payments.jitterMillis", 50),
+            Double.parseDouble(System.getProperty("payments.failureRate", "0")),
+            Double.parseDouble(System.getProperty("payments.declineRate", "0")));
+        paymentGateway = gateway;
+        return new PaymentPipeline(gateway,
+            Integer.getInteger("payments.maxBatch", 50),
+            Long.getLong("payments.lingerMillis", 5),
+            Integer.getInteger("payments.maxInFlight", 8),
+            Long.getLong("payments.timeoutMillis", 2000),
+            Integer.getInteger("payments.queueCapacity", 10_000));
+    }
+
+    // -Dshards=A=http://host1:8080,B=http://host2:8080 splits orders across those nodes;
+    // -Dnode names which one this is, and -Dshard.timeoutMillis (2000) bounds each call
+    // to another node. Every node must be given the same list
+    private static ShardRouter startShards() throws IOException {
+        String spec = System.getProperty("shards");
+        if (spec == null || spec.isEmpty()) return null;
+        return new ShardRouter(System.getProperty("node"), ShardRouter.parseNodes(spec),
+            Long.getLong("shard.timeoutMillis", 2000));
+    }
+
+    // Delivered and cancelled orders move to a compact off-heap archive after
+    // -Darchive.afterSeconds (60). -Darchive.dir maps the archive's segments from files in
+    // that directory instead of direct memory; -Darchive.segmentMB sizes them (16);
+    // -Darchive=off keeps every order live. Set up before the journal is replayed, so
+    // recovered orders that were already finished are archived too
+    private static void startArchive() throws IOException {
+        if ("off".equals(System.getProperty("archive"))) return;
+        String dir = System.getProperty("archive.dir");
+        OrderArchive archive = new OrderArchive(
+            Integer.getInteger("archive.segmentMB", 16) * 1024 * 1024,
+            dir != null && !dir.isEmpty() ? Path.of(dir) : null,
+            java.time.ZoneId.systemDefault());
+        orderManager.setArchive(archive);
+        long afterMillis = TimeUnit.SECONDS.toMillis(Long.getLong("archive.afterSeconds", 60));
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                orderManager.archiveFinished(afterMillis);
+            } catch (RuntimeException ex) {
+                System.out.println("Archive sweep failed: " + ex);
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // Sales figures start from the orders already in memory (e.g. recovered from the
+    // journal) that fall inside the longest window kept, then follow order events
+    private static SalesAnalytics startAnalytics() {
+        SalesAnalytics a = new SalesAnalytics(orderManager, java.time.ZoneId.systemDefault());
+        LocalDateTime since = LocalDateTime.now().minus(
+            java.time.Duration.ofMillis(SalesAnalytics.Resolution.DAY.getSpanMillis()));
+        a.seed(orderManager.getOrdersBetween(since, null, Integer.MAX_VALUE));
+        // Totals that missed an event would stay wrong until it aged out of the window
+        orderManager.addLosslessObserver(a);
+        return a;
+    }
+
+    // Startup options: first argument or -Dexecutor=inline|pool|virtual,
+    // plus -Dthreads and -Dqueue for the bounded pool, -Dport (8080), and
+    // -Drecord=<file> to log every request for replay by the load harness
     public static void main(String[] args) throws IOException {
-        HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
-        server.createContext("/", new StaticHandler("./Public"));
-        server.createContext("/api/claim", new ClaimHandler());
-        server.createContext("/api/order", new OrderHandler());
-        server.createContext("/api/cart", new CartHandler());
-        server.setExecutor(null);
+        ExecutorMode mode = ExecutorMode.fromString(
+            args.length > 0 ? args[0] : System.getProperty("executor"));
+        int threads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors() * 4);
+        int queue = Integer.getInteger("queue", 1024);
+
+        int port = start(Integer.getInteger("port", 8080), mode, threads, queue);
+        Runtime.getRuntime().addShutdownHook(new Thread(RestaurantBackend::stop));
+        System.out.println("Server running at http://localhost:" + port + " (executor: " + mode + ")");
+        if (shards != null) {
+            System.out.println("Shard " + shards.getSelf() + " of " + shards.getNodes());
+        }
+    }
+
+    // Set by start, cleared by stop
+    private static HttpServer server;
+    private static ExecutorService executor;
+    private static ConfigWatcher configWatcher;
+    private static OrderJournal journal;
+    private static RequestRecorder recorder;
+
+    // Starts everything main does and returns the port the server is listening on, so an
+    // embedding process such as the load harness can pass 0 for any free port. The server
+    // keeps its state in static fields, so it can only be started once per JVM
+    public static synchronized int start(int port, ExecutorMode mode, int threads, int queue) throws IOException {
+        if (server != null || kitchen != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        shards = startShards();
+        startArchive();
+        journal = openJournal();
+        configWatcher = watchConfig();
+        dailyCap = new DailyOrderCap(() -> RestaurantConfig.getInstance().getMaxOrdersPerDay(),
+            java.time.Clock.systemDefaultZone());
+        countTodaysOrders(dailyCap);
+        payments = startPayments();
+        kitchen = startKitchen();
+        resumePayments();
+        // -Dsse.writers, -Dsse.maxSubscribers, -Dsse.slowMillis, -Dsse.heartbeatMillis
+        streams = new OrderStatusStreams(orderManager,
+            Integer.getInteger("sse.writers", 4),
+            Integer.getInteger("sse.maxSubscribers", 10_000),
+            Long.getLong("sse.slowMillis", 5000),
+            Long.getLong("sse.heartbeatMillis", 15_000));
+        orderManager.addObserver(streams);
+        analytics = startAnalytics();
+        String record = System.getProperty("record");
+        if (record != null && !record.isEmpty()) {
+            recorder = new RequestRecorder(Path.of(record));
+        }
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        route(server, "/", "static", new StaticHandler("./Public"));
+        route(server, "/api/claim", "claim", new ClaimHandler());
+        guardOrders(route(server, "/api/order", "order", new OrderHandler()));
+        guardOrders(route(server, "/api/order/batch", "order_batch", new BatchOrderHandler()));
+        route(server, "/api/cart", "cart", new CartHandler());
+        guardOrders(route(server, "/api/v2", "api_v2", new ApiV2Handler()));
+        HttpContext events = route(server, "/api/orders/", "order_events", new OrderEventsHandler());
+        if (shards != null) events.getFilters().add(shards);
+        route(server, "/api/metrics", "metrics", new MetricsHandler());
+        route(server, "/api/stats", "stats", new StatsHandler());
+        executor = mode.create(threads, queue);
+        server.setExecutor(executor);
+        registerGauges(executor);
         server.start();
-        System.out.println("Server running at http://localhost:8080");
+        return server.getAddress().getPort();
+    }
+
+    // Stops the server and flushes the journal; safe to call more than once
+    public static synchronized void stop() {
+        if (server == null) return;
+        server.stop(1);
+        server = null;
+        if (executor != null) executor.shutdown();
+        if (payments != null) payments.shutdown();
+        // After the pipeline, which waits for calls in flight to finish
+        if (paymentGateway != null) paymentGateway.shutdown();
+        kitchen.shutdown();
+        streams.shutdown();
+        orderManager.shutdown();
+        if (configWatcher != null) {
+            try {
+                configWatcher.close();
+            } catch (IOException ex) {
+                System.out.println("Config watcher close failed: " + ex.getMessage());
+            }
+        }
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException ex) {
+                System.out.println("Request recording close failed: " + ex.getMessage());
+            }
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                System.out.println("Journal close failed: " + ex.getMessage());
+            }
+        }
     }
 }
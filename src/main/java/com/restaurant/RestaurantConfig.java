@@ -1,48 +1,118 @@
 package com.restaurant;
 
-// Design Pattern: Singleton Pattern
-public class RestaurantConfig {
-    private static RestaurantConfig instance;
-    private String restaurantName;
-    private String address;
-    private double taxRate;
-    private int maxOrdersPerDay;
-    
-    // Private constructor for Singleton
-    private RestaurantConfig() {
-        this.restaurantName = "Savory Bites";
-        this.address = "123 Food Street";
-        this.taxRate = 8.5;
-        this.maxOrdersPerDay = 100;
-    }
-    
-    // Singleton getInstance method
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+// Design Pattern: Singleton Pattern, as an immutable snapshot.
+// getInstance() returns the current snapshot with one volatile read. Changes build a
+// new snapshot and swap it in (e.g. when the config file is reloaded), so a reader
+// that holds one snapshot sees a consistent set of values for as long as it keeps it
+public final class RestaurantConfig {
+    private static final AtomicLong versions = new AtomicLong();
+    private static final AtomicReference<RestaurantConfig> current =
+        new AtomicReference<>(new RestaurantConfig("Savory Bites", "123 Food Street", 8.5, 100));
+
+    private final long version;
+    private final String restaurantName;
+    private final String address;
+    private final double taxRate;
+    private final long taxBasisPoints; // derived once, read on every order
+    private final int maxOrdersPerDay;
+
+    private RestaurantConfig(String restaurantName, String address, double taxRate, int maxOrdersPerDay) {
+        // Data Validation
+        if (taxRate < 0 || taxRate > 100) {
+            throw new IllegalArgumentException("Tax rate must be between 0 and 100");
+        }
+        if (maxOrdersPerDay < 0) {
+            throw new IllegalArgumentException("Max orders per day cannot be negative");
+        }
+        this.version = versions.incrementAndGet();
+        this.restaurantName = restaurantName;
+        this.address = address;
+        this.taxRate = taxRate;
+        this.taxBasisPoints = Money.basisPoints(taxRate);
+        this.maxOrdersPerDay = maxOrdersPerDay;
+    }
+
+    // Current snapshot
     public static RestaurantConfig getInstance() {
-        if (instance == null) {
-            synchronized (RestaurantConfig.class) {
-                if (instance == null) {
-                    instance = new RestaurantConfig();
-                }
+        return current.get();
+    }
+
+    // Applies a change to the current snapshot and publishes the result atomically;
+    // retried if another update got in first
+    public static RestaurantConfig update(UnaryOperator<RestaurantConfig> change) {
+        while (true) {
+            RestaurantConfig before = current.get();
+            RestaurantConfig after = change.apply(before);
+            if (current.compareAndSet(before, after)) {
+                return after;
             }
         }
-        return instance;
     }
-    
-    // Getters and Setters
+
+    // Reads restaurantName, address, taxRate and maxOrdersPerDay from a properties file;
+    // keys that are missing keep their current values. -Dorders.maxPerDay, when set,
+    // wins over the file
+    public static RestaurantConfig load(Path file) throws IOException {
+        Properties props = new Properties();
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            props.load(in);
+        }
+        return update(c -> {
+            String name = props.getProperty("restaurantName", c.restaurantName).trim();
+            String addr = props.getProperty("address", c.address).trim();
+            double tax = c.taxRate;
+            int max = c.maxOrdersPerDay;
+            try {
+                String value = props.getProperty("taxRate");
+                if (value != null) tax = Double.parseDouble(value.trim());
+                value = props.getProperty("maxOrdersPerDay");
+                if (value != null) max = Integer.parseInt(value.trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid number in " + file + ": " + ex.getMessage());
+            }
+            Integer override = Integer.getInteger("orders.maxPerDay");
+            return new RestaurantConfig(name, addr, tax, override != null ? override : max);
+        });
+    }
+
+    // Getters; each with* method returns a new snapshot and leaves this one unchanged
+    public long getVersion() { return version; }
+
     public String getRestaurantName() { return restaurantName; }
-    public void setRestaurantName(String restaurantName) { this.restaurantName = restaurantName; }
-    
+    public RestaurantConfig withRestaurantName(String restaurantName) {
+        return new RestaurantConfig(restaurantName, address, taxRate, maxOrdersPerDay);
+    }
+
     public String getAddress() { return address; }
-    public void setAddress(String address) { this.address = address; }
-    
+    public RestaurantConfig withAddress(String address) {
+        return new RestaurantConfig(restaurantName, address, taxRate, maxOrdersPerDay);
+    }
+
     public double getTaxRate() { return taxRate; }
-    public void setTaxRate(double taxRate) {
-        if (taxRate < 0 || taxRate > 100) {
-            throw new IllegalArgumentException("Tax rate must be between 0 and 100");
-        }
-        this.taxRate = taxRate;
+    public long getTaxBasisPoints() { return taxBasisPoints; }
+    public RestaurantConfig withTaxRate(double taxRate) {
+        return new RestaurantConfig(restaurantName, address, taxRate, maxOrdersPerDay);
     }
-    
+
+    // 0 means no limit
     public int getMaxOrdersPerDay() { return maxOrdersPerDay; }
-    public void setMaxOrdersPerDay(int maxOrdersPerDay) { this.maxOrdersPerDay = maxOrdersPerDay; }
+    public RestaurantConfig withMaxOrdersPerDay(int maxOrdersPerDay) {
+        return new RestaurantConfig(restaurantName, address, taxRate, maxOrdersPerDay);
+    }
+
+    @Override
+    public String toString() {
+        return "RestaurantConfig[v" + version + " " + restaurantName + ", tax " + taxRate
+            + "%, max " + maxOrdersPerDay + " orders/day]";
+    }
 }
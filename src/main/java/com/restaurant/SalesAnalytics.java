@@ -0,0 +1,386 @@
+package com.restaurant;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.*;
+
+// Rolling sales figures built from order events, so reporting never scans OrderManager.
+// Each order is added once, when its "Order Created" event arrives, to a minute, an
+// hour and a day bucket: units sold and revenue per menu item and per category, held
+// in primitive arrays indexed by a slot number given to each item the first time it is
+// sold. A cancelled order is taken back out of the buckets it went into. Buckets live
+// in fixed rings and are reused as time moves on; a query adds up the buckets covering
+// its window at the finest resolution that reaches back far enough, so its cost depends
+// on the number of buckets and items, not on the number of orders.
+// There is one writer, the observer's event thread, and queries take no lock: they may
+// miss an order that is being added at that moment, but never block the writer or each
+// other. Events the bus dropped for a full buffer are missing from the figures
+public class SalesAnalytics implements OrderObserver {
+    // Bucket width and how many buckets each ring keeps
+    public enum Resolution {
+        MINUTE(60_000L, 180),
+        HOUR(3_600_000L, 72),
+        DAY(86_400_000L, 92);
+
+        private final long millis;
+        private final int slots;
+
+        Resolution(long millis, int slots) {
+            this.millis = millis;
+            this.slots = slots;
+        }
+
+        public long getMillis() { return millis; }
+
+        // The current bucket is partial, so only slots - 1 whole buckets are guaranteed
+        public long getSpanMillis() { return millis * (slots - 1); }
+    }
+
+    // Counters are written by one thread and read by others; opaque access is enough to
+    // keep a long from tearing and costs no more than a plain read on common hardware
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int CANCEL_MEMORY = 65_536;
+
+    private final OrderManager orders;
+    private final ZoneId zone;
+    private final Ring[] rings;
+
+    // Slots; the writer fills an entry in before publishing the count that covers it
+    private final Map<String, Integer> itemSlots = new HashMap<>();
+    private final Map<String, Integer> categorySlots = new HashMap<>();
+    private volatile String[] itemIds = new String[64];
+    private volatile String[] itemNames = new String[64];
+    private volatile int[] itemCategory = new int[64];
+    private volatile String[] categoryNames = new String[16];
+    private volatile int itemCount;
+    private volatile int categoryCount;
+    // Recently cancelled orders, so a repeated Cancelled event is not subtracted twice
+    private final Map<String, Boolean> cancelled = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > CANCEL_MEMORY;
+        }
+    };
+
+    public SalesAnalytics(OrderManager orders, ZoneId zone) {
+        this.orders = orders;
+        this.zone = zone;
+        Resolution[] all = Resolution.values();
+        this.rings = new Ring[all.length];
+        for (int i = 0; i < all.length; i++) {
+            rings[i] = new Ring(all[i]);
+        }
+    }
+
+    private static final class Bucket {
+        volatile long number = -1;   // which bucket of its resolution this is; -1 while unused
+        volatile long orders;
+        volatile long revenueCents;
+        volatile long[] itemUnits = new long[0];
+        volatile long[] itemRevenue = new long[0];
+        volatile long[] categoryUnits = new long[0];
+        volatile long[] categoryRevenue = new long[0];
+
+        // Cleared before the new number is published, so a reader that sees the number
+        // sees the cleared counters
+        void reset(long number) {
+            orders = 0;
+            revenueCents = 0;
+            clear(itemUnits);
+            clear(itemRevenue);
+            clear(categoryUnits);
+            clear(categoryRevenue);
+            this.number = number;
+        }
+
+        void fit(int items, int categories) {
+            if (itemUnits.length < items) {
+                int size = Math.max(items, itemUnits.length * 2);
+                itemUnits = Arrays.copyOf(itemUnits, size);
+                itemRevenue = Arrays.copyOf(itemRevenue, size);
+            }
+            if (categoryUnits.length < categories) {
+                int size = Math.max(categories, categoryUnits.length * 2);
+                categoryUnits = Arrays.copyOf(categoryUnits, size);
+                categoryRevenue = Arrays.copyOf(categoryRevenue, size);
+            }
+        }
+
+        private static void clear(long[] counters) {
+            for (int i = 0; i < counters.length; i++) {
+                LONGS.setOpaque(counters, i, 0L);
+            }
+        }
+    }
+
+    private static void add(long[] counters, int i, long delta) {
+        LONGS.setOpaque(counters, i, counters[i] + delta);
+    }
+
+    private static long read(long[] counters, int i) {
+        return (long) LONGS.getOpaque(counters, i);
+    }
+
+    private static final class Ring {
+        final Resolution resolution;
+        final Bucket[] buckets;
+
+        Ring(Resolution resolution) {
+            this.resolution = resolution;
+            this.buckets = new Bucket[resolution.slots];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new Bucket();
+            }
+        }
+
+        // The bucket for a moment, recycling its slot if it still holds an older bucket;
+        // null when the moment is too old for this ring
+        Bucket forWriting(long number) {
+            Bucket b = buckets[(int) Math.floorMod(number, (long) buckets.length)];
+            if (b.number > number) return null;
+            if (b.number < number) b.reset(number);
+            return b;
+        }
+
+        // A query covers fewer buckets than the ring holds, so a bucket it reads is only
+        // recycled if time moves past the whole window while the query runs
+        Bucket forReading(long number) {
+            Bucket b = buckets[(int) Math.floorMod(number, (long) buckets.length)];
+            return b.number == number ? b : null;
+        }
+    }
+
+    // Bucket numbers count from the epoch in local time, so hours and days start on the
+    // local clock's boundaries
+    private long bucketNumber(Resolution resolution, long millis) {
+        long offset = zone.getRules().getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds() * 1000L;
+        return Math.floorDiv(millis + offset, resolution.millis);
+    }
+
+    @Override
+    public void update(String orderId, String status) {
+        update(Collections.singletonList(new OrderEvent(orderId, status, System.currentTimeMillis())));
+    }
+
+    @Override
+    public void update(List<OrderEvent> events) {
+        for (OrderEvent event : events) {
+            if ("Order Created".equals(event.getStatus())) {
+                Order order = orders.getOrder(event.getOrderId());
+                if (order != null) record(order, 1);
+            } else if ("Cancelled".equalsIgnoreCase(event.getStatus())) {
+                Order order = orders.getOrder(event.getOrderId());
+                if (order != null && cancelled.put(order.getOrderId(), Boolean.TRUE) == null) {
+                    record(order, -1);
+                }
+            }
+        }
+    }
+
+    // Adds orders that existed before this observer was registered, e.g. those recovered
+    // from the journal. Cancelled orders are skipped. Call before addObserver: it writes
+    // on the caller's thread
+    public void seed(Collection<Order> existing) {
+        for (Order order : existing) {
+            if (!"Cancelled".equalsIgnoreCase(order.getStatus())) {
+                record(order, 1);
+            }
+        }
+    }
+
+    // Writer thread only
+    private void record(Order order, int sign) {
+        long time = OrderIndex.timeOf(order.getOrderTime());
+        List<OrderLine> lines = order.getLines();
+        int n = lines.size();
+        int[] item = new int[n];
+        for (int i = 0; i < n; i++) {
+            item[i] = itemSlot(lines.get(i).getItem());
+        }
+        int[] itemCat = itemCategory;
+        for (Ring ring : rings) {
+            Bucket b = ring.forWriting(bucketNumber(ring.resolution, time));
+            if (b == null) continue;
+            b.fit(itemCount, categoryCount);
+            long[] units = b.itemUnits;
+            long[] revenue = b.itemRevenue;
+            long[] catUnits = b.categoryUnits;
+            long[] catRevenue = b.categoryRevenue;
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                OrderLine line = lines.get(i);
+                long u = (long) sign * line.getQuantity();
+                long r = sign * line.getLineTotalCents();
+                add(units, item[i], u);
+                add(revenue, item[i], r);
+                add(catUnits, itemCat[item[i]], u);
+                add(catRevenue, itemCat[item[i]], r);
+                total += r;
+            }
+            b.orders = b.orders + sign;
+            b.revenueCents = b.revenueCents + total;
+        }
+    }
+
+    private int itemSlot(MenuItem item) {
+        Integer slot = itemSlots.get(item.getId());
+        if (slot != null) return slot;
+        int s = itemCount;
+        if (s == itemIds.length) {
+            itemIds = Arrays.copyOf(itemIds, s * 2);
+            itemNames = Arrays.copyOf(itemNames, s * 2);
+            itemCategory = Arrays.copyOf(itemCategory, s * 2);
+        }
+        itemIds[s] = item.getId();
+        itemNames[s] = item.getName();
+        itemCategory[s] = categorySlot(item.getCategory() != null ? item.getCategory() : "");
+        itemSlots.put(item.getId(), s);
+        itemCount = s + 1;
+        return s;
+    }
+
+    private int categorySlot(String category) {
+        Integer slot = categorySlots.get(category);
+        if (slot != null) return slot;
+        int s = categoryCount;
+        if (s == categoryNames.length) {
+            categoryNames = Arrays.copyOf(categoryNames, s * 2);
+        }
+        categoryNames[s] = category;
+        categorySlots.put(category, s);
+        categoryCount = s + 1;
+        return s;
+    }
+
+    // The finest resolution whose ring reaches back over the whole window
+    public static Resolution resolutionFor(long windowMillis) {
+        for (Resolution r : Resolution.values()) {
+            if (windowMillis <= r.getSpanMillis()) return r;
+        }
+        throw new IllegalArgumentException("Window is longer than the "
+            + Resolution.DAY.getSpanMillis() / Resolution.DAY.millis + " days kept");
+    }
+
+    // Sales in the window ending now, to the precision of the chosen resolution's buckets:
+    // the current, partial bucket plus enough whole ones before it to cover the window.
+    // Items and categories come back by revenue, highest first, at most limit of each
+    public Report report(long windowMillis, long now, int limit) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        Resolution resolution = resolutionFor(windowMillis);
+        Ring ring = rings[resolution.ordinal()];
+        long last = bucketNumber(resolution, now);
+        long first = last - (windowMillis + resolution.millis - 1) / resolution.millis + 1;
+
+        // Counts first: every slot below a count read here has its entries filled in
+        int items = itemCount;
+        int categories = categoryCount;
+        String[] ids = itemIds;
+        String[] names = itemNames;
+        int[] itemCat = itemCategory;
+        String[] catNames = categoryNames;
+
+        long[] units = new long[items];
+        long[] revenue = new long[items];
+        long[] catUnits = new long[categories];
+        long[] catRevenue = new long[categories];
+        long orderCount = 0;
+        long total = 0;
+        for (long number = first; number <= last; number++) {
+            Bucket b = ring.forReading(number);
+            if (b == null) continue;
+            orderCount += b.orders;
+            total += b.revenueCents;
+            // A bucket's arrays only grow when it is written past its length, so a
+            // bucket last written before an item existed has shorter arrays
+            long[] bu = b.itemUnits;
+            long[] br = b.itemRevenue;
+            for (int i = Math.min(items, Math.min(bu.length, br.length)) - 1; i >= 0; i--) {
+                units[i] += read(bu, i);
+                revenue[i] += read(br, i);
+            }
+            long[] cu = b.categoryUnits;
+            long[] cr = b.categoryRevenue;
+            for (int i = Math.min(categories, Math.min(cu.length, cr.length)) - 1; i >= 0; i--) {
+                catUnits[i] += read(cu, i);
+                catRevenue[i] += read(cr, i);
+            }
+        }
+
+        List<Line> itemLines = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            if (units[i] != 0 || revenue[i] != 0) {
+                itemLines.add(new Line(ids[i], names[i], catNames[itemCat[i]], units[i], revenue[i]));
+            }
+        }
+        List<Line> categoryLines = new ArrayList<>();
+        for (int i = 0; i < categories; i++) {
+            if (catUnits[i] != 0 || catRevenue[i] != 0) {
+                categoryLines.add(new Line(catNames[i], catNames[i], catNames[i], catUnits[i], catRevenue[i]));
+            }
+        }
+        return new Report(resolution, (last - first + 1) * resolution.millis, orderCount, total, top(itemLines, limit), top(categoryLines, limit));
+    }
+
+    private static final Comparator<Line> BY_REVENUE =
+        Comparator.comparingLong(Line::getRevenueCents).reversed().thenComparing(Line::getKey);
+
+    private static List<Line> top(List<Line> lines, int limit) {
+        lines.sort(BY_REVENUE);
+        return lines.size() > limit ? new ArrayList<>(lines.subList(0, limit)) : lines;
+    }
+
+    // Units and revenue for one item or one category
+    public static final class Line {
+        private final String key;
+        private final String name;
+        private final String category;
+        private final long units;
+        private final long revenueCents;
+
+        Line(String key, String name, String category, long units, long revenueCents) {
+            this.key = key;
+            this.name = name;
+            this.category = category;
+            this.units = units;
+            this.revenueCents = revenueCents;
+        }
+
+        public String getKey() { return key; }
+        public String getName() { return name; }
+        public String getCategory() { return category; }
+        public long getUnits() { return units; }
+        public long getRevenueCents() { return revenueCents; }
+    }
+
+    // Result of a query; coveredMillis is the span of the buckets added up, which runs
+    // from the start of the first bucket to the end of the current one
+    public static final class Report {
+        private final Resolution resolution;
+        private final long coveredMillis;
+        private final long orders;
+        private final long revenueCents;
+        private final List<Line> items;
+        private final List<Line> categories;
+
+        Report(Resolution resolution, long coveredMillis, long orders, long revenueCents,
+               List<Line> items, List<Line> categories) {
+            this.resolution = resolution;
+            this.coveredMillis = coveredMillis;
+            this.orders = orders;
+            this.revenueCents = revenueCents;
+            this.items = items;
+            this.categories = categories;
+        }
+
+        public Resolution getResolution() { return resolution; }
+        public long getCoveredMillis() { return coveredMillis; }
+        public long getOrders() { return orders; }
+        public long getRevenueCents() { return revenueCents; }
+        public List<Line> getItems() { return items; }
+        public List<Line> getCategories() { return categories; }
+    }
+}
@@ -0,0 +1,210 @@
+package com.restaurant;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Carts keyed by session ID, split into shards that each keep their sessions in
+// least-recently-used order. A lookup locks only its own shard, the oldest session is
+// dropped when a shard is full, and idle sessions expire after the configured TTL.
+// A cart holds at most maxLines distinct items and Order.MAX_QUANTITY of each, so a
+// client cannot grow one without bound
+public class SessionCartStore {
+    private final Shard[] shards;
+    private final int mask;
+    private final int maxSessionsPerShard;
+    private final int maxLines;
+    private final long idleTtlMillis;
+
+    public SessionCartStore(int shardCount, int maxSessions, int maxLines, long idleTtlMillis) {
+        if (shardCount <= 0 || Integer.bitCount(shardCount) != 1) {
+            throw new IllegalArgumentException("Shard count must be a positive power of two");
+        }
+        if (maxSessions < shardCount) {
+            throw new IllegalArgumentException("Max sessions must be at least the shard count");
+        }
+        if (maxLines <= 0) {
+            throw new IllegalArgumentException("Max lines per cart must be positive");
+        }
+        if (idleTtlMillis <= 0) {
+            throw new IllegalArgumentException("Idle TTL must be positive");
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+        this.mask = shardCount - 1;
+        this.maxSessionsPerShard = maxSessions / shardCount;
+        this.maxLines = maxLines;
+        this.idleTtlMillis = idleTtlMillis;
+    }
+
+    // One customer's cart; only touched while its shard lock is held
+    private static class Cart {
+        final Map<String, Integer> items = new LinkedHashMap<>();
+        long lastAccess;
+    }
+
+    private static class Shard {
+        final ReentrantLock lock = new ReentrantLock();
+        // Access-ordered, so iteration starts at the least recently used session
+        final LinkedHashMap<String, Cart> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private Shard shardFor(String sessionId) {
+        int h = sessionId.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    public Map<String, Integer> getCart(String sessionId) {
+        Shard shard = shardFor(sessionId);
+        shard.lock.lock();
+        try {
+            Cart cart = shard.sessions.get(sessionId);
+            if (cart == null) {
+                return Collections.emptyMap();
+            }
+            cart.lastAccess = System.currentTimeMillis();
+            return new LinkedHashMap<>(cart.items);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    // Callers check itemId against the menu; IllegalArgumentException when the cart is full
+    public void addItem(String sessionId, String itemId) {
+        Shard shard = shardFor(sessionId);
+        shard.lock.lock();
+        try {
+            Cart cart = getOrCreate(shard, sessionId);
+            Integer quantity = cart.items.get(itemId);
+            if (quantity == null && cart.items.size() >= maxLines) {
+                throw new IllegalArgumentException("At most " + maxLines + " different items per cart");
+            }
+            if (quantity != null && quantity >= Order.MAX_QUANTITY) {
+                throw new IllegalArgumentException("At most " + Order.MAX_QUANTITY + " of one item per order");
+            }
+            cart.items.merge(itemId, 1, Integer::sum);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    public void removeItem(String sessionId, String itemId) {
+        Shard shard = shardFor(sessionId);
+        shard.lock.lock();
+        try {
+            Cart cart = shard.sessions.get(sessionId);
+            if (cart != null) {
+                cart.lastAccess = System.currentTimeMillis();
+                cart.items.remove(itemId);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    // Receives a cart's lines in the order they were first added
+    public interface Visitor {
+        void item(String itemId, int quantity);
+    }
+
+    // Walks the cart under its shard lock instead of copying it; returns the line count
+    public int visit(String sessionId, Visitor visitor) {
+        Shard shard = shardFor(sessionId);
+        shard.lock.lock();
+        try {
+            Cart cart = shard.sessions.get(sessionId);
+            if (cart == null) {
+                return 0;
+            }
+            cart.lastAccess = System.currentTimeMillis();
+            for (Map.Entry<String, Integer> entry : cart.items.entrySet()) {
+                visitor.item(entry.getKey(), entry.getValue());
+            }
+            return cart.items.size();
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    // Writes the cart as {itemId=qty, ...} (Map.toString format) without copying it
+    void describe(String sessionId, ResponseBuffer out) {
+        out.append('{');
+        int start = out.length();
+        visit(sessionId, (itemId, quantity) -> {
+            if (out.length() > start) out.append(", ");
+            out.append(itemId).append('=').append(quantity);
+        });
+        out.append('}');
+    }
+
+    public void clear(String sessionId) {
+        Shard shard = shardFor(sessionId);
+        shard.lock.lock();
+        try {
+            shard.sessions.remove(sessionId);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private Cart getOrCreate(Shard shard, String sessionId) {
+        long now = System.currentTimeMillis();
+        Cart cart = shard.sessions.get(sessionId);
+        if (cart == null) {
+            // Creating a session pays for trimming expired ones, so busy shards stay small
+            evictExpired(shard, now);
+            if (shard.sessions.size() >= maxSessionsPerShard) {
+                Iterator<Cart> oldest = shard.sessions.values().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            cart = new Cart();
+            shard.sessions.put(sessionId, cart);
+        }
+        cart.lastAccess = now;
+        return cart;
+    }
+
+    // Sessions are in access order, so stop at the first one that is still fresh
+    private int evictExpired(Shard shard, long now) {
+        int evicted = 0;
+        Iterator<Cart> it = shard.sessions.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().lastAccess < idleTtlMillis) {
+                break;
+            }
+            it.remove();
+            evicted++;
+        }
+        return evicted;
+    }
+
+    // Called periodically so shards that see no new sessions still shrink
+    public int evictExpired() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                evicted += evictExpired(shard, now);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    public int size() {
+        int total = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                total += shard.sessions.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return total;
+    }
+}
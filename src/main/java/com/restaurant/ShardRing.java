@@ -0,0 +1,68 @@
+package com.restaurant;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+// Consistent hash ring over node IDs. Each node owns many points on a 64-bit ring and a
+// key belongs to the node at the first point at or after the key's hash, so adding or
+// removing one node moves only that node's share of keys and leaves the rest where they
+// were. Immutable; lookups are a binary search over a sorted array
+public final class ShardRing {
+    private final long[] points;
+    private final String[] owners;
+
+    public ShardRing(Collection<String> nodes, int pointsPerNode) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Ring needs at least one node");
+        }
+        if (pointsPerNode < 1) {
+            throw new IllegalArgumentException("Points per node must be positive");
+        }
+        long[] hashes = new long[nodes.size() * pointsPerNode];
+        String[] names = new String[hashes.length];
+        int n = 0;
+        for (String node : nodes) {
+            for (int i = 0; i < pointsPerNode; i++) {
+                hashes[n] = hash(node + '#' + i);
+                names[n++] = node;
+            }
+        }
+        // Sort the points, carrying their owners along; ties go to the smaller node ID
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> hashes[a] != hashes[b]
+            ? Long.compareUnsigned(hashes[a], hashes[b]) : names[a].compareTo(names[b]));
+        this.points = new long[n];
+        this.owners = new String[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = names[order[i]];
+        }
+    }
+
+    public String ownerOf(String key) {
+        long h = hash(key);
+        int lo = 0, hi = points.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(points[mid], h) < 0) lo = mid + 1; else hi = mid;
+        }
+        return owners[lo == points.length ? 0 : lo];
+    }
+
+    // FNV-1a over the UTF-8 bytes, then a 64-bit finalizer: FNV alone leaves short,
+    // similar keys such as "A#1" and "A#2" close together on the ring
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,298 @@
+package com.restaurant;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+// Splits orders across several backend processes. Each node mints order IDs that name
+// it (ORDB-42 lives on node B), so any node can tell where an order lives from its ID
+// alone. Where a new order goes is decided by a consistent hash ring over the node IDs:
+// the Idempotency-Key, when there is one, so a retry lands on the same node and is
+// deduplicated there, and otherwise a per-node placement counter. Adding a node only
+// changes where new orders go; existing orders stay with the node their ID names.
+//
+// As a filter, it sends order creation, lookups and status changes for orders on other
+// nodes to their owner and relays the answer, and redirects status streams (they are
+// long-lived, so the client is better off connected to the owner directly). It sits
+// after admission, so a client is limited by the node it talks to; forwarded requests
+// are not admitted a second time on the owner. Cross-shard queries use gather
+public class ShardRouter extends Filter {
+    public static final String FORWARDED = "X-Shard-Forwarded";
+    private static final String[] FORWARD_HEADERS = {"Content-Type", "Accept", "Cookie", IdempotencyFilter.HEADER};
+    private static final String EVENTS = "/api/orders/";
+
+    private final String self;
+    private final Map<String, String> nodes;       // node ID -> base URL, in configured order
+    private final ShardRing ring;
+    private final Set<InetAddress> peerAddresses = new HashSet<>();
+    private final HttpClient client;
+    private final Duration timeout;
+    private final AtomicLong placements = new AtomicLong();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public ShardRouter(String self, Map<String, String> nodes, long timeoutMillis) throws UnknownHostException {
+        if (self == null || !nodes.containsKey(self)) {
+            throw new IllegalArgumentException("This node (-Dnode) must be one of the shards: " + nodes.keySet());
+        }
+        for (String node : nodes.keySet()) {
+            // The same rule OrderIdGenerator applies, so every node's IDs can be told apart
+            if (!node.matches("[A-Za-z0-9]+")) {
+                throw new IllegalArgumentException("Node ID must be alphanumeric: " + node);
+            }
+        }
+        this.self = self;
+        this.nodes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> node : nodes.entrySet()) {
+            String base = node.getValue();
+            this.nodes.put(node.getKey(), base.endsWith("/") ? base.substring(0, base.length() - 1) : base);
+            if (!node.getKey().equals(self)) {
+                peerAddresses.addAll(Arrays.asList(InetAddress.getAllByName(URI.create(base).getHost())));
+            }
+        }
+        this.ring = new ShardRing(this.nodes.keySet(), 128);
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(timeout)
+            .build();
+    }
+
+    // "A=http://host:8081,B=http://host:8082"
+    public static Map<String, String> parseNodes(String spec) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0 || eq == part.length() - 1) {
+                throw new IllegalArgumentException("Shard must be written as node=url: " + part);
+            }
+            String url = part.substring(eq + 1).trim();
+            URI uri = URI.create(url);
+            if (!"http".equals(uri.getScheme()) || uri.getHost() == null) {
+                throw new IllegalArgumentException("Shard URL must be http://host:port: " + url);
+            }
+            nodes.put(part.substring(0, eq).trim(), url);
+        }
+        return nodes;
+    }
+
+    public String getSelf() { return self; }
+
+    public Set<String> getNodes() { return Collections.unmodifiableSet(nodes.keySet()); }
+
+    // The node holding an order, or null when its ID names no known node
+    public String ownerOf(String orderId) {
+        String node = OrderIdGenerator.nodeOf(orderId);
+        return node != null && nodes.containsKey(node) ? node : null;
+    }
+
+    // Where a new order goes
+    String placementFor(HttpExchange exchange) {
+        String key = exchange.getRequestHeaders().getFirst(IdempotencyFilter.HEADER);
+        return ring.ownerOf(key != null
+            ? exchange.getRequestURI().getPath() + ' ' + key
+            : "placement " + self + ' ' + placements.getAndIncrement());
+    }
+
+    // True for a request another node forwarded here, which must be answered locally.
+    // The header only counts from a peer's address, so a client cannot use it to skip
+    // routing or admission
+    public boolean isFromPeer(HttpExchange exchange) {
+        if (exchange.getRequestHeaders().getFirst(FORWARDED) == null) return false;
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return remote.getAddress() != null && peerAddresses.contains(remote.getAddress());
+    }
+
+    public long getForwardedCount() { return forwarded.sum(); }
+
+    public long getFailureCount() { return failures.sum(); }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (isFromPeer(exchange)) {
+            chain.doFilter(exchange);
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        String owner = null;
+        byte[] body = null;
+        if ("POST".equals(method) && RestaurantBackend.ORDER_CREATE_PATHS.contains(path)) {
+            owner = placementFor(exchange);
+        } else if ("GET".equals(method) && path.equals("/api/v2/order")) {
+            FormData query = new FormData();
+            query.parse(exchange.getRequestURI().getRawQuery());
+            owner = ownerOf(query.get("id"));
+        } else if ("POST".equals(method) && path.equals("/api/v2/order/status")) {
+            body = readBody(exchange);
+            FormData form = new FormData();
+            form.parse(body, 0, body.length);
+            owner = ownerOf(form.get("id"));
+        } else if ("GET".equals(method) && path.startsWith(EVENTS)) {
+            int end = path.indexOf('/', EVENTS.length());
+            owner = ownerOf(path.substring(EVENTS.length(), end < 0 ? path.length() : end));
+            if (owner != null && !owner.equals(self)) {
+                exchange.getResponseHeaders().set("Location", nodes.get(owner) + exchange.getRequestURI());
+                exchange.sendResponseHeaders(307, -1);
+                exchange.close();
+                return;
+            }
+        }
+        if (owner == null || owner.equals(self)) {
+            if (body != null) exchange.setStreams(new ByteArrayInputStream(body), null);
+            chain.doFilter(exchange);
+            return;
+        }
+        forward(exchange, owner, body != null ? body : readBody(exchange));
+    }
+
+    private void forward(HttpExchange exchange, String owner, byte[] body) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(nodes.get(owner) + exchange.getRequestURI()))
+            .timeout(timeout)
+            .header(FORWARDED, self)
+            .method(exchange.getRequestMethod(), body.length == 0
+                ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+        for (String name : FORWARD_HEADERS) {
+            String value = exchange.getRequestHeaders().getFirst(name);
+            if (value != null) request.header(name, value);
+        }
+        HttpResponse<byte[]> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException ex) {
+            failures.increment();
+            AdmissionFilter.reject(exchange, 502, 0, "Shard " + owner + " unavailable");
+            return;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted forwarding to shard " + owner);
+        }
+        forwarded.increment();
+        for (String name : new String[] {"Content-Type", "Retry-After", "Idempotent-Replayed"}) {
+            response.headers().firstValue(name).ifPresent(v -> exchange.getResponseHeaders().set(name, v));
+        }
+        exchange.getResponseHeaders().set("X-Shard", owner);
+        byte[] content = response.body();
+        exchange.sendResponseHeaders(response.statusCode(), content.length == 0 ? -1 : content.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(content);
+        }
+    }
+
+    // One node's answer to a gathered query; body is null if it did not answer in time
+    public static final class Reply {
+        private final String node;
+        private final int status;
+        private final String body;
+
+        Reply(String node, int status, String body) {
+            this.node = node;
+            this.status = status;
+            this.body = body;
+        }
+
+        public String getNode() { return node; }
+        public int getStatus() { return status; }
+        public String getBody() { return body; }
+        public boolean isOk() { return body != null && status == 200; }
+    }
+
+    // Sends the request's GET to every other node at once and waits for all of them, at
+    // most the forwarding timeout. The caller answers its own part locally
+    public List<Reply> gather(HttpExchange exchange) {
+        List<String> peers = new ArrayList<>();
+        List<CompletableFuture<HttpResponse<String>>> pending = new ArrayList<>();
+        for (Map.Entry<String, String> node : nodes.entrySet()) {
+            if (node.getKey().equals(self)) continue;
+            HttpRequest request = HttpRequest.newBuilder(URI.create(node.getValue() + exchange.getRequestURI()))
+                .timeout(timeout)
+                .header(FORWARDED, self)
+                .GET()
+                .build();
+            peers.add(node.getKey());
+            pending.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        List<Reply> replies = new ArrayList<>(peers.size());
+        for (int i = 0; i < peers.size(); i++) {
+            try {
+                HttpResponse<String> response = pending.get(i).join();
+                forwarded.increment();
+                replies.add(new Reply(peers.get(i), response.statusCode(), response.body()));
+            } catch (java.util.concurrent.CompletionException ex) {
+                failures.increment();
+                replies.add(new Reply(peers.get(i), 0, null));
+            }
+        }
+        return replies;
+    }
+
+    // The elements of a top-level array field, each as its JSON text, e.g. the orders of
+    // {"orders":[{...},{...}],"count":2}. Only what JsonWriter produces needs handling
+    static List<String> arrayElements(String json, String field) {
+        List<String> elements = new ArrayList<>();
+        int at = json.indexOf("\"" + field + "\":[");
+        if (at < 0) return elements;
+        int i = at + field.length() + 4;
+        int depth = 0;
+        int start = i;
+        boolean inString = false;
+        for (; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                if (c == '\\') i++;
+                else if (c == '"') inString = false;
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    if (i > start) elements.add(json.substring(start, i));
+                    break;
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                elements.add(json.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return elements;
+    }
+
+    // A string field of a flat-enough JSON object: the first occurrence of the name
+    static String stringField(String json, String field) {
+        String marker = "\"" + field + "\":\"";
+        int at = json.indexOf(marker);
+        if (at < 0) return null;
+        int start = at + marker.length();
+        int end = json.indexOf('"', start);
+        return end < 0 ? null : json.substring(start, end);
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(ExchangeBuffers.MAX_BODY + 1);
+            if (body.length > ExchangeBuffers.MAX_BODY) {
+                throw new IOException("Request body too large");
+            }
+            return body;
+        }
+    }
+
+    @Override
+    public String description() {
+        return "shard router";
+    }
+}
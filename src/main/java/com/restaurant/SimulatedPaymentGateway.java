@@ -0,0 +1,76 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Local stand-in for a payment provider, for development and load tests. Each call
+// takes a base latency plus a per-payment cost plus random jitter, fails as a whole
+// with the given probability, and declines each payment with another probability.
+// Nothing blocks: results are delivered from a scheduler thread when the latency is up
+public class SimulatedPaymentGateway implements PaymentGateway {
+    private final long baseLatencyMillis;
+    private final long perPaymentMicros;
+    private final long jitterMillis;
+    private final double failureRate;
+    private final double declineRate;
+    private final AtomicLong authCodes = new AtomicLong(100_000);
+    private final AtomicLong calls = new AtomicLong();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "payment-gateway-sim");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public SimulatedPaymentGateway(long baseLatencyMillis, long perPaymentMicros, long jitterMillis,
+                                   double failureRate, double declineRate) {
+        if (baseLatencyMillis < 0 || perPaymentMicros < 0 || jitterMillis < 0) {
+            throw new IllegalArgumentException("Latencies cannot be negative");
+        }
+        if (failureRate < 0 || failureRate > 1 || declineRate < 0 || declineRate > 1) {
+            throw new IllegalArgumentException("Rates must be between 0 and 1");
+        }
+        this.baseLatencyMillis = baseLatencyMillis;
+        this.perPaymentMicros = perPaymentMicros;
+        this.jitterMillis = jitterMillis;
+        this.failureRate = failureRate;
+        this.declineRate = declineRate;
+    }
+
+    @Override
+    public CompletableFuture<List<Result>> submit(List<Request> batch) {
+        calls.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delayMicros = baseLatencyMillis * 1000 + perPaymentMicros * batch.size()
+            + (jitterMillis > 0 ? random.nextLong(jitterMillis * 1000) : 0);
+        boolean fail = random.nextDouble() < failureRate;
+        List<Result> results = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            if (random.nextDouble() < declineRate) {
+                results.add(new Result(request.getReference(), false, "Declined by issuer"));
+            } else {
+                results.add(new Result(request.getReference(), true,
+                    (request.getKind() == Kind.REFUND ? "R" : "A") + authCodes.incrementAndGet()));
+            }
+        }
+        CompletableFuture<List<Result>> future = new CompletableFuture<>();
+        timer.schedule(() -> {
+            if (fail) {
+                future.completeExceptionally(new IOException("Simulated gateway failure"));
+            } else {
+                future.complete(results);
+            }
+        }, delayMicros, TimeUnit.MICROSECONDS);
+        return future;
+    }
+
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+}
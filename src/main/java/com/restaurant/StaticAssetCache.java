@@ -0,0 +1,200 @@
+package com.restaurant;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps static files in memory together with their validators (strong ETag and
+// Last-Modified), so a hit costs a map lookup instead of a stat, open and read.
+// Each entry re-stats its file at most once per check interval and reloads on change.
+// Entries are keyed by the normalized file path, so "/a/../x.png", "/./x.png" and
+// "//x.png" share one copy, and files that would take the total past maxTotalBytes are
+// not cached; that is decided from the file's size before it is read. Uncached files
+// get a cheap weak validator from their size and modification time instead
+public class StaticAssetCache {
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final Path root;
+    private final long maxFileSize;
+    private final long maxTotalBytes;
+    private final long checkIntervalMillis;
+    private final ConcurrentHashMap<Path, Asset> assets = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    public StaticAssetCache(String root, long maxFileSize, long maxTotalBytes, long checkIntervalMillis) {
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        this.maxFileSize = maxFileSize;
+        this.maxTotalBytes = maxTotalBytes;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    // Immutable snapshot of one file; only the last check time moves
+    public static class Asset {
+        private final byte[] content;
+        private final String etag;
+        private final long lastModified;
+        private final String lastModifiedHeader;
+        private final String contentType;
+        private volatile long checkedAt;
+
+        Asset(byte[] content, String etag, long lastModified, String contentType, long checkedAt) {
+            this.content = content;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.lastModifiedHeader = httpDate(lastModified);
+            this.contentType = contentType;
+            this.checkedAt = checkedAt;
+        }
+
+        public byte[] getContent() { return content; }
+        public String getEtag() { return etag; }
+        public long getLastModified() { return lastModified; }
+        public String getLastModifiedHeader() { return lastModifiedHeader; }
+        public String getContentType() { return contentType; }
+
+        public boolean notModified(String ifNoneMatch, String ifModifiedSince) {
+            return StaticAssetCache.notModified(etag, lastModified, ifNoneMatch, ifModifiedSince);
+        }
+    }
+
+    // If-None-Match takes precedence; If-Modified-Since is only used without it. Tags are
+    // compared weakly, as suits a GET or HEAD
+    public static boolean notModified(String etag, long lastModified, String ifNoneMatch, String ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            String own = etag.startsWith("W/") ? etag.substring(2) : etag;
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals("*") || t.equals(own)) return true;
+            }
+            return false;
+        }
+        if (ifModifiedSince != null) {
+            try {
+                long since = Instant.from(HTTP_DATE.parse(ifModifiedSince.trim())).toEpochMilli();
+                return lastModified / 1000 <= since / 1000;
+            } catch (RuntimeException ex) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Validator for a file served from disk: changes whenever its size or mtime does
+    public static String weakEtag(BasicFileAttributes attrs) {
+        return "W/\"" + Long.toHexString(attrs.size()) + '-'
+            + Long.toHexString(attrs.lastModifiedTime().toMillis()) + '"';
+    }
+
+    public static String httpDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    // Returns null when the path does not name a regular file under the root or the
+    // file does not fit in the cache; callers stream those straight from disk
+    public Asset get(String requestPath) throws IOException {
+        Path file = resolveFile(requestPath);
+        if (file == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Asset asset = assets.get(file);
+        if (asset != null && now - asset.checkedAt < checkIntervalMillis) {
+            return asset;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            evict(file);
+            return null;
+        }
+        if (!attrs.isRegularFile() || attrs.size() > maxFileSize) {
+            evict(file);
+            return null;
+        }
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (asset != null && asset.lastModified == modified && asset.content.length == attrs.size()) {
+            asset.checkedAt = now;
+            return asset;
+        }
+        // Leave files that cannot fit to be streamed, without reading or hashing them
+        long room = maxTotalBytes - cachedBytes.get() + (asset != null ? asset.content.length : 0);
+        if (attrs.size() > room) {
+            evict(file);
+            return null;
+        }
+        byte[] content = Files.readAllBytes(file);
+        Asset loaded = new Asset(content, etag(content), modified, contentType(file.toString()), now);
+        return store(file, loaded) ? loaded : null;
+    }
+
+    // Replaces the entry for file, unless the new content would take the cache over its
+    // byte limit; then the old entry is dropped too
+    private boolean store(Path file, Asset loaded) {
+        boolean[] stored = new boolean[1];
+        assets.compute(file, (k, current) -> {
+            long freed = current != null ? current.content.length : 0;
+            long total = cachedBytes.addAndGet(loaded.content.length - freed);
+            if (total <= maxTotalBytes) {
+                stored[0] = true;
+                return loaded;
+            }
+            cachedBytes.addAndGet(-loaded.content.length);
+            return null;
+        });
+        return stored[0];
+    }
+
+    private void evict(Path file) {
+        assets.computeIfPresent(file, (k, current) -> {
+            cachedBytes.addAndGet(-current.content.length);
+            return null;
+        });
+    }
+
+    // Rejects anything that escapes the root after normalisation (e.g. "/../")
+    public Path resolveFile(String requestPath) {
+        Path file = root.resolve(requestPath.startsWith("/") ? requestPath.substring(1) : requestPath)
+            .normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    public int size() {
+        return assets.size();
+    }
+
+    public long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    static String contentType(String path) {
+        return path.endsWith(".html") ? "text/html" :
+               path.endsWith(".css") ? "text/css" :
+               path.endsWith(".js") ? "application/javascript" :
+               path.endsWith(".png") ? "image/png" :
+               path.endsWith(".jpg") ? "image/jpeg" : "application/octet-stream";
+    }
+
+    private static String etag(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(34).append('"');
+            for (int i = 0; i < 16; i++) {
+                sb.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+                  .append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+}